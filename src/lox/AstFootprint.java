@@ -0,0 +1,71 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Benchmark comparing the heap retained by a parsed script as an Expr/Stmt
+ * object graph and as a FlatAst. Usage: java -cp out lox.AstFootprint <script>
+ */
+final class AstFootprint {
+  private AstFootprint() {}
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 1) {
+      System.out.println("Usage: AstFootprint <script>");
+      System.exit(64);
+    }
+
+    ByteBuffer source;
+    try (FileChannel channel = FileChannel.open(Path.of(args[0]))) {
+      source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    Lox lox = new Lox();
+
+    long base = usedHeap();
+    long start = System.nanoTime();
+    List<Stmt> statements =
+        new Parser(new Scanner(source, lox).scanTokens(), lox).parse();
+    long parseNanos = System.nanoTime() - start;
+    if (lox.hadError)
+      System.exit(65);
+    long objectBytes = usedHeap() - base;
+
+    start = System.nanoTime();
+    FlatAst flat = FlatAst.encode(statements);
+    long encodeNanos = System.nanoTime() - start;
+    statements = null;
+    long flatBytes = usedHeap() - base;
+
+    start = System.nanoTime();
+    List<Stmt> decoded = flat.decode();
+    long decodeNanos = System.nanoTime() - start;
+
+    System.out.printf("statements     %,d%n", decoded.size());
+    System.out.printf("flat ints      %,d (%,d tokens, %,d literals)%n",
+                      flat.nodes.length, flat.tokens.length / 4,
+                      flat.literals.length);
+    System.out.printf("object graph   %,d bytes (parse %.1f ms)%n",
+                      objectBytes, parseNanos / 1e6);
+    System.out.printf("flat AST       %,d bytes (encode %.1f ms, decode %.1f "
+                          + "ms)%n",
+                      flatBytes, encodeNanos / 1e6, decodeNanos / 1e6);
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    // Collect until the figure settles; one gc() call is only a hint.
+    for (int i = 0; i < 8; i++) {
+      System.gc();
+      long now = runtime.totalMemory() - runtime.freeMemory();
+      if (now >= used)
+        break;
+      used = now;
+    }
+    return used;
+  }
+}
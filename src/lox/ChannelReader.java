@@ -0,0 +1,156 @@
+package lox;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Buffered sequential reader over a file channel for the bulk loaders. It
+ * reads fixed-width binary fields and simple CSV rows (comma separated, no
+ * quoting, fields trimmed, blank lines and '#' comments skipped) straight
+ * from one reusable direct buffer.
+ */
+final class ChannelReader implements Closeable {
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private final FileChannel channel;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  private byte[] row = new byte[256];
+  private int line = 0;
+
+  ChannelReader(Path path) throws IOException {
+    channel = FileChannel.open(path);
+    buffer.flip();
+  }
+
+  ChannelReader order(ByteOrder order) {
+    buffer.order(order);
+    return this;
+  }
+
+  // Line number of the last row returned by readRow.
+  int line() { return line; }
+
+  // True if the next four bytes are magic; consumes nothing.
+  boolean startsWith(int magic) throws IOException {
+    return available(4) && buffer.getInt(buffer.position()) == magic;
+  }
+
+  int readByte() throws IOException {
+    require(1);
+    return buffer.get();
+  }
+
+  int readInt() throws IOException {
+    require(4);
+    return buffer.getInt();
+  }
+
+  double readDouble() throws IOException {
+    require(8);
+    return buffer.getDouble();
+  }
+
+  float readFloat() throws IOException {
+    require(4);
+    return buffer.getFloat();
+  }
+
+  // An unsigned 16-bit length followed by that many UTF-8 bytes.
+  String readString() throws IOException {
+    require(2);
+    int length = buffer.getShort() & 0xFFFF;
+    require(length);
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads the next non-blank, non-comment row into fields. Returns false at
+   * the end of the file.
+   */
+  boolean readRow(List<String> fields) throws IOException {
+    while (true) {
+      int length = readLine();
+      if (length < 0)
+        return false;
+      line++;
+
+      int start = 0;
+      while (start < length && isSpace(row[start]))
+        start++;
+      if (start == length || row[start] == '#')
+        continue;
+
+      fields.clear();
+      int from = 0;
+      for (int i = 0; i <= length; i++) {
+        if (i == length || row[i] == ',') {
+          fields.add(field(from, i));
+          from = i + 1;
+        }
+      }
+      return true;
+    }
+  }
+
+  // Copies the next line (without its terminator) into row; -1 at the end.
+  private int readLine() throws IOException {
+    int length = 0;
+    while (true) {
+      if (!buffer.hasRemaining() && !fill())
+        return length == 0 ? -1 : length;
+      byte b = buffer.get();
+      if (b == '\n')
+        return length;
+      if (length == row.length)
+        row = Arrays.copyOf(row, length * 2);
+      row[length++] = b;
+    }
+  }
+
+  private String field(int from, int to) {
+    while (from < to && isSpace(row[from]))
+      from++;
+    while (to > from && isSpace(row[to - 1]))
+      to--;
+    return new String(row, from, to - from, StandardCharsets.UTF_8);
+  }
+
+  private static boolean isSpace(byte b) {
+    return b == ' ' || b == '\t' || b == '\r';
+  }
+
+  private void require(int n) throws IOException {
+    if (!available(n))
+      throw new EOFException("unexpected end of file");
+  }
+
+  private boolean available(int n) throws IOException {
+    while (buffer.remaining() < n) {
+      if (!fill())
+        return false;
+    }
+    return true;
+  }
+
+  private boolean fill() throws IOException {
+    buffer.compact();
+    int read = channel.read(buffer);
+    buffer.flip();
+    return read > 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
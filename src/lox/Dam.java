@@ -1,61 +1,42 @@
 package lox;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 public class Dam extends WaterNode {
-  private final LoxCallable outFlow;
+  private LoxCallable outFlow;
 
-  public Dam(Interpreter interpreter, String name, LoxCallable outFlow) {
-    super(interpreter, name);
+  public Dam(String name, LoxCallable outFlow) {
+    super(name);
     this.outFlow = outFlow;
   }
 
   @Override
-  protected NodeOutputs doCalculateDetailed(int days, double[] rainfall,
-                                            Set<WaterNode> visiting,
-                                            DetailedResult res) {
-    List<double[]> upstreamPerEdge = new ArrayList<>(inflows.size());
-    for (WaterNode in : inflows) {
-      NodeOutputs child = evalChildDetailed(in, days, rainfall, visiting, res);
-      upstreamPerEdge.add(child.perEdgeOut);
-    }
-
-    double[] totalOut = new double[days];
-    double[] backlog = new double[days];
-    double stored = 0.0;
+  protected Stepper stepper(int days, Rainfall rainfall) {
+    LoxCallable outFlow = this.outFlow;
+    return new Stepper() {
+      private double stored = 0.0;
 
-    for (int day = 0; day < days; day++) {
-      double incoming = 0.0;
-      for (int k = 0; k < upstreamPerEdge.size(); k++) {
-        double[] inOut = upstreamPerEdge.get(k);
-        if (day < inOut.length)
-          incoming += inOut[day];
+      @Override
+      void step(Interpreter interpreter, int day, double incoming) {
+        double currVol = stored + incoming;
+        double requested = computeRelease(interpreter, outFlow, currVol, rainfall.days() > day ? rainfall.get(day) : 0, currVol / (24.0 * 60.0 * 60.0));
+        double outToday = Math.max(0.0, Math.min(requested, currVol));
+        outflow = outToday;
+        stored = currVol - outToday;
+        storage = stored;
       }
 
-      double currVol = stored + incoming;
-      double requested = computeRelease(currVol, rainfall.length > day ? rainfall[day] : 0, currVol / (24.0 * 60.0 * 60.0));
-      double outToday = Math.max(0.0, Math.min(requested, currVol));
-      totalOut[day] = outToday;
-      stored = currVol - outToday;
-      backlog[day] = stored;
-    }
-
-    int branches = Math.max(1, downstreamCount());
-    double[] perEdgeOut;
-    if (branches > 1) {
-      perEdgeOut = new double[days];
-      for (int i = 0; i < days; i++)
-        perEdgeOut[i] = totalOut[i] / branches;
-    } else {
-      perEdgeOut = totalOut.clone();
-    }
-
-    return new NodeOutputs(totalOut, perEdgeOut, backlog);
+      // An empty dam releases nothing whatever out_flow asks for.
+      @Override
+      boolean drained(int day) {
+        return stored == 0.0;
+      }
+    };
   }
 
-  private double computeRelease(double currVol, double dailyRainfall, double flowRate) {
+  private double computeRelease(Interpreter interpreter, LoxCallable outFlow,
+                                double currVol,
+                                double dailyRainfall, double flowRate) {
     Object flowObj = outFlow.call(interpreter, List.of(currVol, dailyRainfall, flowRate));
     double out;
     if (flowObj instanceof Double d) {
@@ -70,6 +51,14 @@ public class Dam extends WaterNode {
     return out;
   }
 
+  @Override
+  protected void setProperty(Token where, String key, Object value) {
+    if (key.equals("out_flow"))
+      outFlow = Interpreter.nodeFunction(where, key, value, 3);
+    else
+      super.setProperty(where, key, value);
+  }
+
   @Override
   protected String nodeLabel() {
     return super.nodeLabel() + " [ out_flow=" + outFlow + " ]";
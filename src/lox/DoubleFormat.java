@@ -0,0 +1,220 @@
+package lox;
+
+import java.math.BigInteger;
+
+/**
+ * Formats doubles the way unit values display them, straight into a
+ * StringBuilder and without allocating.
+ *
+ * A double is first reduced to the shortest decimal that reads back as the
+ * same double (the digits Double.toString picks), using Giulietti's
+ * Schubfach algorithm. Those digits are then rounded half up to 12 decimal
+ * places when |x| >= 1, or to 12 significant digits otherwise, trailing
+ * zeros are dropped, and the result is written in plain notation. This is
+ * what BigDecimal.valueOf(x) rounded that way and printed with
+ * toPlainString gives.
+ */
+final class DoubleFormat {
+  private static final int DIGITS = 12;
+
+  private static final int P = 53;
+  private static final int Q_MIN = -1074;
+  private static final long C_MIN = 1L << (P - 1);
+  private static final long T_MASK = C_MIN - 1;
+  private static final int BQ_MASK = 0x7ff;
+  private static final int C_TINY = 3;
+  private static final int K_MIN = -324;
+  private static final int K_MAX = 292;
+  private static final long MASK_63 = (1L << 63) - 1;
+
+  private static final long[] POW10 = new long[19];
+  // For each k, the 126 bit g ~ 10^-k scaled into [2^125, 2^126) as its high
+  // and low 63 bits.
+  private static final long[] G = new long[2 * (K_MAX - K_MIN + 1)];
+
+  static {
+    POW10[0] = 1;
+    for (int i = 1; i < POW10.length; i++)
+      POW10[i] = 10 * POW10[i - 1];
+
+    BigInteger mask = BigInteger.ONE.shiftLeft(63).subtract(BigInteger.ONE);
+    for (int k = K_MIN; k <= K_MAX; k++) {
+      // 10^-k = beta 2^r with 2^125 <= beta < 2^126; g = floor(beta) + 1.
+      int r = flog2pow10(-k) - 125;
+      BigInteger num = BigInteger.ONE;
+      BigInteger den = BigInteger.ONE;
+      if (k <= 0)
+        num = BigInteger.TEN.pow(-k);
+      else
+        den = BigInteger.TEN.pow(k);
+      if (r <= 0)
+        num = num.shiftLeft(-r);
+      else
+        den = den.shiftLeft(r);
+      BigInteger g = num.divide(den).add(BigInteger.ONE);
+      G[2 * (k - K_MIN)] = g.shiftRight(63).longValueExact();
+      G[2 * (k - K_MIN) + 1] = g.and(mask).longValueExact();
+    }
+  }
+
+  private DoubleFormat() {}
+
+  static String format(double d) {
+    StringBuilder out = new StringBuilder(24);
+    append(out, d);
+    return out.toString();
+  }
+
+  static void append(StringBuilder out, double d) {
+    if (Double.isNaN(d) || Double.isInfinite(d)) {
+      out.append(d);
+      return;
+    }
+    if (d == 0.0) {
+      out.append('0');
+      return;
+    }
+
+    // Shortest decimal f 10^e, f > 0.
+    long f;
+    int e;
+    long bits = Double.doubleToRawLongBits(d);
+    long t = bits & T_MASK;
+    int bq = (int)(bits >>> (P - 1)) & BQ_MASK;
+    if (bq != 0) {
+      int mq = -Q_MIN + 1 - bq;
+      long c = C_MIN | t;
+      long whole = 0 < mq && mq < P ? c >> mq : -1;
+      if (whole >= 0 && whole << mq == c) {
+        f = whole;
+        e = 0;
+      } else {
+        f = shortest(-mq, c, 0);
+        e = exponent(-mq, c);
+      }
+    } else if (t < C_TINY) {
+      f = shortest(Q_MIN, 10 * t, -1);
+      e = exponent(Q_MIN, 10 * t) - 1;
+    } else {
+      f = shortest(Q_MIN, t, 0);
+      e = exponent(Q_MIN, t);
+    }
+
+    // Round at 12 decimals, or at 12 significant digits below 1.
+    int cut = Math.abs(d) >= 1.0 ? -DIGITS : length(f) + e - DIGITS;
+    if (e < cut) {
+      int drop = cut - e;
+      if (drop >= POW10.length) {
+        f = 0;
+      } else {
+        long unit = POW10[drop];
+        long rest = f % unit;
+        f /= unit;
+        if (2 * rest >= unit)
+          f++;
+      }
+      e = cut;
+    }
+    if (f == 0) {
+      out.append('0');
+      return;
+    }
+    while (f % 10 == 0) {
+      f /= 10;
+      e++;
+    }
+
+    if (d < 0)
+      out.append('-');
+    if (e >= 0) {
+      out.append(f);
+      for (int i = 0; i < e; i++)
+        out.append('0');
+      return;
+    }
+    int len = length(f);
+    int point = len + e;
+    if (point <= 0) {
+      out.append("0.");
+      for (int i = point; i < 0; i++)
+        out.append('0');
+      out.append(f);
+      return;
+    }
+    long high = f / POW10[-e];
+    long low = f % POW10[-e];
+    out.append(high).append('.');
+    for (int i = length(low); i < -e; i++)
+      out.append('0');
+    out.append(low);
+  }
+
+  private static int length(long f) {
+    int len = 1;
+    while (len < POW10.length && f >= POW10[len])
+      len++;
+    return len;
+  }
+
+  // Decimal exponent k that shortest scales c 2^q by.
+  private static int exponent(int q, long c) {
+    return c != C_MIN | q == Q_MIN ? flog10pow2(q)
+                                   : flog10threeQuartersPow2(q);
+  }
+
+  // Digits of the shortest decimal in the rounding interval of c 2^q, to be
+  // read as that many units of 10^(exponent(q, c) + dk). Follows the
+  // reference Schubfach implementation.
+  private static long shortest(int q, long c, int dk) {
+    int out = (int)c & 0x1;
+    long cb = c << 2;
+    long cbr = cb + 2;
+    long cbl = c != C_MIN | q == Q_MIN ? cb - 2 : cb - 1;
+    int k = exponent(q, c);
+    int h = q + flog2pow10(-k) + 2;
+    long g1 = G[2 * (k - K_MIN)];
+    long g0 = G[2 * (k - K_MIN) + 1];
+    long vb = rop(g1, g0, cb << h);
+    long vbl = rop(g1, g0, cbl << h);
+    long vbr = rop(g1, g0, cbr << h);
+
+    long s = vb >> 2;
+    if (s >= 100) {
+      long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+      long tp10 = sp10 + 10;
+      boolean upin = vbl + out <= sp10 << 2;
+      boolean wpin = (tp10 << 2) + out <= vbr;
+      if (upin != wpin)
+        return (upin ? sp10 : tp10) * (dk == 0 ? 1 : 10);
+    }
+    long t = s + 1;
+    boolean uin = vbl + out <= s << 2;
+    boolean win = (t << 2) + out <= vbr;
+    if (uin != win)
+      return uin ? s : t;
+    long cmp = vb - (s + t << 1);
+    return cmp < 0 || cmp == 0 && (s & 0x1) == 0 ? s : t;
+  }
+
+  // Rounds cp g 2^-127 to odd.
+  private static long rop(long g1, long g0, long cp) {
+    long x1 = Math.multiplyHigh(g0, cp);
+    long y0 = g1 * cp;
+    long y1 = Math.multiplyHigh(g1, cp);
+    long z = (y0 >>> 1) + x1;
+    long vbp = y1 + (z >>> 63);
+    return vbp | (z & MASK_63) + MASK_63 >>> 63;
+  }
+
+  private static int flog10pow2(int e) {
+    return (int)(e * 661_971_961_083L >> 41);
+  }
+
+  private static int flog10threeQuartersPow2(int e) {
+    return (int)(e * 661_971_961_083L + -274_743_187_321L >> 41);
+  }
+
+  private static int flog2pow10(int e) {
+    return (int)(e * 913_124_641_741L >> 38);
+  }
+}
@@ -1,11 +1,13 @@
 package lox;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
 class Environment {
   final Environment enclosing;
   private final Map<String, Object> values = new HashMap<>();
+  private final Object owner = Parallel.currentTask();
 
   Environment() { enclosing = null; }
 
@@ -25,6 +27,7 @@ class Environment {
 
   void assign(Token name, Object value) {
     if (values.containsKey(name.lexeme)) {
+      checkOwner(name);
       values.put(name.lexeme, value);
       return;
     }
@@ -39,6 +42,8 @@ class Environment {
 
   void define(String name, Object value) { values.put(name, value); }
 
+  Collection<Object> values() { return values.values(); }
+
   Environment ancestor(int distance) {
     Environment environment = this;
     for (int i = 0; i < distance; i++) {
@@ -53,6 +58,14 @@ class Environment {
   }
 
   void assignAt(int distance, Token name, Object value) {
-    ancestor(distance).values.put(name.lexeme, value);
+    Environment target = ancestor(distance);
+    target.checkOwner(name);
+    target.values.put(name.lexeme, value);
+  }
+
+  private void checkOwner(Token name) {
+    if (Parallel.isShared(owner)) {
+      throw Parallel.sharedWrite(name, "variable '" + name.lexeme + "'");
+    }
   }
 }
\ No newline at end of file
@@ -9,6 +9,7 @@ abstract class Expr {
 		R visitArrayExpr(Array expr);
 		R visitBinaryExpr(Binary expr);
 		R visitCallExpr(Call expr);
+		R visitDictionaryExpr(Dictionary expr);
 		R visitGetExpr(Get expr);
 		R visitGroupingExpr(Grouping expr);
 		R visitLambdaExpr(Lambda expr);
@@ -78,6 +79,22 @@ abstract class Expr {
 		final Token paren;
 		final List<Expr> arguments;
 	}
+	static class Dictionary extends Expr {
+		Dictionary(Token brace, List<Expr> keys, List<Expr> values) {
+			this.brace = brace;
+			this.keys = keys;
+			this.values = values;
+		}
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitDictionaryExpr(this);
+		}
+
+		final Token brace;
+		final List<Expr> keys;
+		final List<Expr> values;
+	}
 	static class Get extends Expr {
 		Get(Expr object, Token name) {
 			this.object = object;
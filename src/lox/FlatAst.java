@@ -0,0 +1,410 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Array-backed AST, generated by tool.GenerateAst alongside Expr and Stmt.
+ *
+ * A node is a record in nodes: its kind followed by one int per field. Node
+ * fields hold the child's offset, literal fields an index into literals,
+ * token fields an index into tokens, and list or map fields the offset of
+ * a block holding a count and then the items (key literal and value node
+ * pairs for maps). A token is four ints: type ordinal, lexeme literal,
+ * literal and line. Missing children, tokens and nil literals are -1.
+ *
+ * Only AstFootprint uses it for now. The resolver, interpreter and
+ * snapshots still work on the object tree; decode() rebuilds that tree.
+ */
+final class FlatAst {
+	private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+	static final int EXPR_ASSIGN = 0;
+	static final int EXPR_ARRAY = 1;
+	static final int EXPR_BINARY = 2;
+	static final int EXPR_CALL = 3;
+	static final int EXPR_DICTIONARY = 4;
+	static final int EXPR_GET = 5;
+	static final int EXPR_GROUPING = 6;
+	static final int EXPR_LAMBDA = 7;
+	static final int EXPR_LITERAL = 8;
+	static final int EXPR_LOGICAL = 9;
+	static final int EXPR_SET = 10;
+	static final int EXPR_SUPER = 11;
+	static final int EXPR_THIS = 12;
+	static final int EXPR_UNARY = 13;
+	static final int EXPR_VARIABLE = 14;
+	static final int STMT_BLOCK = 15;
+	static final int STMT_CLASS = 16;
+	static final int STMT_EXPRESSION = 17;
+	static final int STMT_EDGE = 18;
+	static final int STMT_FUNCTION = 19;
+	static final int STMT_IF = 20;
+	static final int STMT_PARALLEL_FOR = 21;
+	static final int STMT_RETURN = 22;
+	static final int STMT_PRINT = 23;
+	static final int STMT_VAR = 24;
+	static final int STMT_WHILE = 25;
+	static final int STMT_NODE_DECL = 26;
+
+	final int[] nodes;
+	final int[] tokens;
+	final Object[] literals;
+	// List block of the top-level statements.
+	final int root;
+
+	private FlatAst(int[] nodes, int[] tokens, Object[] literals, int root) {
+		this.nodes = nodes;
+		this.tokens = tokens;
+		this.literals = literals;
+		this.root = root;
+	}
+
+	static FlatAst encode(List<Stmt> statements) {
+		Encoder encoder = new Encoder();
+		int root = encoder.stmts(statements);
+		return new FlatAst(Arrays.copyOf(encoder.nodes, encoder.size),
+				Arrays.copyOf(encoder.tokens, encoder.tokenSize), encoder.literals.toArray(), root);
+	}
+
+	int kind(int node) { return nodes[node]; }
+	int field(int node, int index) { return nodes[node + 1 + index]; }
+	int length(int block) { return nodes[block]; }
+	int item(int block, int index) { return nodes[block + 1 + index]; }
+	TokenType tokenType(int slot) { return TOKEN_TYPES[tokens[4 * slot]]; }
+	String lexeme(int slot) { return (String)literals[tokens[4 * slot + 1]]; }
+	int line(int slot) { return tokens[4 * slot + 3]; }
+	Object literal(int slot) { return slot < 0 ? null : literals[slot]; }
+
+	// Rebuilds the object tree, e.g. for the resolver and interpreter.
+	List<Stmt> decode() { return stmts(root); }
+
+	Expr expr(int node) {
+		if (node < 0)
+			return null;
+		switch (nodes[node]) {
+		case EXPR_ASSIGN:
+			return new Expr.Assign(token(field(node, 0)), expr(field(node, 1)));
+		case EXPR_ARRAY:
+			return new Expr.Array(exprs(field(node, 0)));
+		case EXPR_BINARY:
+			return new Expr.Binary(expr(field(node, 0)), token(field(node, 1)), expr(field(node, 2)));
+		case EXPR_CALL:
+			return new Expr.Call(expr(field(node, 0)), token(field(node, 1)), exprs(field(node, 2)));
+		case EXPR_DICTIONARY:
+			return new Expr.Dictionary(token(field(node, 0)), exprs(field(node, 1)), exprs(field(node, 2)));
+		case EXPR_GET:
+			return new Expr.Get(expr(field(node, 0)), token(field(node, 1)));
+		case EXPR_GROUPING:
+			return new Expr.Grouping(expr(field(node, 0)));
+		case EXPR_LAMBDA:
+			return new Expr.Lambda(tokenList(field(node, 0)), stmts(field(node, 1)));
+		case EXPR_LITERAL:
+			return new Expr.Literal(literal(field(node, 0)));
+		case EXPR_LOGICAL:
+			return new Expr.Logical(expr(field(node, 0)), token(field(node, 1)), expr(field(node, 2)));
+		case EXPR_SET:
+			return new Expr.Set(expr(field(node, 0)), token(field(node, 1)), expr(field(node, 2)));
+		case EXPR_SUPER:
+			return new Expr.Super(token(field(node, 0)), token(field(node, 1)));
+		case EXPR_THIS:
+			return new Expr.This(token(field(node, 0)));
+		case EXPR_UNARY:
+			return new Expr.Unary(token(field(node, 0)), expr(field(node, 1)));
+		case EXPR_VARIABLE:
+			return new Expr.Variable(token(field(node, 0)));
+		default:
+			throw new IllegalStateException("Not a Expr node: " + nodes[node]);
+		}
+	}
+
+	Stmt stmt(int node) {
+		if (node < 0)
+			return null;
+		switch (nodes[node]) {
+		case STMT_BLOCK:
+			return new Stmt.Block(stmts(field(node, 0)));
+		case STMT_CLASS:
+			return new Stmt.Class(token(field(node, 0)), (Expr.Variable)expr(field(node, 1)), stmts(field(node, 2)));
+		case STMT_EXPRESSION:
+			return new Stmt.Expression(expr(field(node, 0)));
+		case STMT_EDGE:
+			return new Stmt.Edge((Expr.Variable)expr(field(node, 0)), token(field(node, 1)), (Expr.Variable)expr(field(node, 2)));
+		case STMT_FUNCTION:
+			return new Stmt.Function(token(field(node, 0)), tokenList(field(node, 1)), stmts(field(node, 2)));
+		case STMT_IF:
+			return new Stmt.If(expr(field(node, 0)), stmt(field(node, 1)), stmt(field(node, 2)));
+		case STMT_PARALLEL_FOR:
+			return new Stmt.ParallelFor(token(field(node, 0)), token(field(node, 1)), expr(field(node, 2)), stmt(field(node, 3)));
+		case STMT_RETURN:
+			return new Stmt.Return(token(field(node, 0)), expr(field(node, 1)));
+		case STMT_PRINT:
+			return new Stmt.Print(expr(field(node, 0)));
+		case STMT_VAR:
+			return new Stmt.Var(token(field(node, 0)), expr(field(node, 1)));
+		case STMT_WHILE:
+			return new Stmt.While(expr(field(node, 0)), stmt(field(node, 1)));
+		case STMT_NODE_DECL:
+			return new Stmt.NodeDecl(token(field(node, 0)), token(field(node, 1)), props(field(node, 2)));
+		default:
+			throw new IllegalStateException("Not a Stmt node: " + nodes[node]);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends Expr> List<T> exprs(int block) {
+		List<T> list = new ArrayList<>(length(block));
+		for (int i = 0; i < length(block); i++)
+			list.add((T)expr(item(block, i)));
+		return list;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T extends Stmt> List<T> stmts(int block) {
+		List<T> list = new ArrayList<>(length(block));
+		for (int i = 0; i < length(block); i++)
+			list.add((T)stmt(item(block, i)));
+		return list;
+	}
+
+	private List<Token> tokenList(int block) {
+		List<Token> list = new ArrayList<>(length(block));
+		for (int i = 0; i < length(block); i++)
+			list.add(token(item(block, i)));
+		return list;
+	}
+
+	private Token token(int slot) {
+		if (slot < 0)
+			return null;
+		return new Token(tokenType(slot), lexeme(slot), literal(tokens[4 * slot + 2]), line(slot));
+	}
+
+	private Map<String, Expr> props(int block) {
+		Map<String, Expr> map = new HashMap<>();
+		for (int i = 0; i < length(block); i++)
+			map.put((String)literal(item(block, 2 * i)), expr(item(block, 2 * i + 1)));
+		return map;
+	}
+
+	private static final class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+		int[] nodes = new int[1024];
+		int size = 0;
+		int[] tokens = new int[1024];
+		int tokenSize = 0;
+		final List<Object> literals = new ArrayList<>();
+		private final Map<Token, Integer> tokenIds = new IdentityHashMap<>();
+		private final Map<Object, Integer> literalIds = new HashMap<>();
+
+		@Override
+		public Integer visitAssignExpr(Expr.Assign expr) {
+			return add(EXPR_ASSIGN, token(expr.name), node(expr.value));
+		}
+
+		@Override
+		public Integer visitArrayExpr(Expr.Array expr) {
+			return add(EXPR_ARRAY, exprs(expr.elements));
+		}
+
+		@Override
+		public Integer visitBinaryExpr(Expr.Binary expr) {
+			return add(EXPR_BINARY, node(expr.left), token(expr.operator), node(expr.right));
+		}
+
+		@Override
+		public Integer visitCallExpr(Expr.Call expr) {
+			return add(EXPR_CALL, node(expr.callee), token(expr.paren), exprs(expr.arguments));
+		}
+
+		@Override
+		public Integer visitDictionaryExpr(Expr.Dictionary expr) {
+			return add(EXPR_DICTIONARY, token(expr.brace), exprs(expr.keys), exprs(expr.values));
+		}
+
+		@Override
+		public Integer visitGetExpr(Expr.Get expr) {
+			return add(EXPR_GET, node(expr.object), token(expr.name));
+		}
+
+		@Override
+		public Integer visitGroupingExpr(Expr.Grouping expr) {
+			return add(EXPR_GROUPING, node(expr.expression));
+		}
+
+		@Override
+		public Integer visitLambdaExpr(Expr.Lambda expr) {
+			return add(EXPR_LAMBDA, tokenList(expr.params), stmts(expr.body));
+		}
+
+		@Override
+		public Integer visitLiteralExpr(Expr.Literal expr) {
+			return add(EXPR_LITERAL, literal(expr.value));
+		}
+
+		@Override
+		public Integer visitLogicalExpr(Expr.Logical expr) {
+			return add(EXPR_LOGICAL, node(expr.left), token(expr.operator), node(expr.right));
+		}
+
+		@Override
+		public Integer visitSetExpr(Expr.Set expr) {
+			return add(EXPR_SET, node(expr.object), token(expr.name), node(expr.value));
+		}
+
+		@Override
+		public Integer visitSuperExpr(Expr.Super expr) {
+			return add(EXPR_SUPER, token(expr.keyword), token(expr.method));
+		}
+
+		@Override
+		public Integer visitThisExpr(Expr.This expr) {
+			return add(EXPR_THIS, token(expr.keyword));
+		}
+
+		@Override
+		public Integer visitUnaryExpr(Expr.Unary expr) {
+			return add(EXPR_UNARY, token(expr.operator), node(expr.right));
+		}
+
+		@Override
+		public Integer visitVariableExpr(Expr.Variable expr) {
+			return add(EXPR_VARIABLE, token(expr.name));
+		}
+
+		@Override
+		public Integer visitBlockStmt(Stmt.Block stmt) {
+			return add(STMT_BLOCK, stmts(stmt.statements));
+		}
+
+		@Override
+		public Integer visitClassStmt(Stmt.Class stmt) {
+			return add(STMT_CLASS, token(stmt.name), node(stmt.superclass), stmts(stmt.methods));
+		}
+
+		@Override
+		public Integer visitExpressionStmt(Stmt.Expression stmt) {
+			return add(STMT_EXPRESSION, node(stmt.expression));
+		}
+
+		@Override
+		public Integer visitEdgeStmt(Stmt.Edge stmt) {
+			return add(STMT_EDGE, node(stmt.from), token(stmt.arrow), node(stmt.to));
+		}
+
+		@Override
+		public Integer visitFunctionStmt(Stmt.Function stmt) {
+			return add(STMT_FUNCTION, token(stmt.name), tokenList(stmt.params), stmts(stmt.body));
+		}
+
+		@Override
+		public Integer visitIfStmt(Stmt.If stmt) {
+			return add(STMT_IF, node(stmt.condition), node(stmt.thenBranch), node(stmt.elseBranch));
+		}
+
+		@Override
+		public Integer visitParallelForStmt(Stmt.ParallelFor stmt) {
+			return add(STMT_PARALLEL_FOR, token(stmt.keyword), token(stmt.name), node(stmt.iterable), node(stmt.body));
+		}
+
+		@Override
+		public Integer visitReturnStmt(Stmt.Return stmt) {
+			return add(STMT_RETURN, token(stmt.keyword), node(stmt.value));
+		}
+
+		@Override
+		public Integer visitPrintStmt(Stmt.Print stmt) {
+			return add(STMT_PRINT, node(stmt.expression));
+		}
+
+		@Override
+		public Integer visitVarStmt(Stmt.Var stmt) {
+			return add(STMT_VAR, token(stmt.name), node(stmt.initializer));
+		}
+
+		@Override
+		public Integer visitWhileStmt(Stmt.While stmt) {
+			return add(STMT_WHILE, node(stmt.condition), node(stmt.body));
+		}
+
+		@Override
+		public Integer visitNodeDeclStmt(Stmt.NodeDecl stmt) {
+			return add(STMT_NODE_DECL, token(stmt.kind), token(stmt.name), props(stmt.props));
+		}
+
+		private int add(int... values) {
+			if (size + values.length > nodes.length)
+				nodes = Arrays.copyOf(nodes, Math.max(nodes.length * 2, size + values.length));
+			System.arraycopy(values, 0, nodes, size, values.length);
+			size += values.length;
+			return size - values.length;
+		}
+
+		private int node(Expr expr) { return expr == null ? -1 : expr.accept(this); }
+
+		private int node(Stmt stmt) { return stmt == null ? -1 : stmt.accept(this); }
+
+		private int token(Token token) {
+			if (token == null)
+				return -1;
+			Integer id = tokenIds.get(token);
+			if (id != null)
+				return id;
+			if (tokenSize + 4 > tokens.length)
+				tokens = Arrays.copyOf(tokens, tokens.length * 2);
+			tokens[tokenSize++] = token.type.ordinal();
+			tokens[tokenSize++] = literal(token.lexeme);
+			tokens[tokenSize++] = literal(token.literal);
+			tokens[tokenSize++] = token.line;
+			tokenIds.put(token, tokenSize / 4 - 1);
+			return tokenSize / 4 - 1;
+		}
+
+		private int literal(Object value) {
+			if (value == null)
+				return -1;
+			return literalIds.computeIfAbsent(value, v -> {
+				literals.add(v);
+				return literals.size() - 1;
+			});
+		}
+
+		private int exprs(List<? extends Expr> list) {
+			int[] block = new int[list.size() + 1];
+			block[0] = list.size();
+			for (int i = 0; i < list.size(); i++)
+				block[i + 1] = node(list.get(i));
+			return add(block);
+		}
+
+		private int stmts(List<? extends Stmt> list) {
+			int[] block = new int[list.size() + 1];
+			block[0] = list.size();
+			for (int i = 0; i < list.size(); i++)
+				block[i + 1] = node(list.get(i));
+			return add(block);
+		}
+
+		private int tokenList(List<Token> list) {
+			int[] block = new int[list.size() + 1];
+			block[0] = list.size();
+			for (int i = 0; i < list.size(); i++)
+				block[i + 1] = token(list.get(i));
+			return add(block);
+		}
+
+		private int props(Map<String, Expr> map) {
+			int[] block = new int[2 * map.size() + 1];
+			block[0] = map.size();
+			int i = 1;
+			for (Map.Entry<String, Expr> entry : map.entrySet()) {
+				block[i++] = literal(entry.getKey());
+				block[i++] = node(entry.getValue());
+			}
+			return add(block);
+		}
+	}
+}
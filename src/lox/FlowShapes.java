@@ -0,0 +1,267 @@
+package lox;
+
+import java.util.List;
+
+/**
+ * Native flow shapes (unit hydrographs). Each spreads a day's water over the
+ * flow_days that follow, as the share released on each of them, and always
+ * releases all of it by the last one:
+ *
+ *   Shape_Linear               the same share every day
+ *   Shape_LastDay              everything on day flow_days
+ *   Shape_SCS                  the SCS dimensionless unit hydrograph, its
+ *                              base (5 times the time to peak) on flow_days
+ *   Shape_Exponential(rate)    a linear reservoir draining rate of its
+ *                              volume a day, cut off at flow_days
+ *   Shape_Triangular(peak)     rising to a peak at that fraction of
+ *                              flow_days, then falling to zero
+ *   Shape_Nash(n, k)           a cascade of n linear reservoirs of k days
+ *                              each (a gamma distribution), cut off at
+ *                              flow_days
+ *
+ * They are ordinary shapes to a script, but River knows them and computes
+ * their kernels in Java without calling into the interpreter.
+ */
+final class FlowShapes {
+  // SCS dimensionless unit hydrograph: t / Tp against q / qp.
+  private static final double[] SCS_T = {
+      0.0, 0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7, 0.8, 0.9, 1.0,
+      1.1, 1.2, 1.3, 1.4, 1.5, 1.6, 1.7, 1.8, 1.9, 2.0, 2.2,
+      2.4, 2.6, 2.8, 3.0, 3.2, 3.4, 3.6, 3.8, 4.0, 4.5, 5.0};
+  private static final double[] SCS_Q = {
+      0.000, 0.030, 0.100, 0.190, 0.310, 0.470, 0.660, 0.820, 0.930,
+      0.990, 1.000, 0.990, 0.930, 0.860, 0.780, 0.680, 0.560, 0.460,
+      0.390, 0.330, 0.280, 0.207, 0.147, 0.107, 0.077, 0.055, 0.040,
+      0.029, 0.021, 0.015, 0.011, 0.005, 0.000};
+  // Area under the SCS curve up to each point of SCS_T.
+  private static final double[] SCS_AREA = new double[SCS_T.length];
+
+  static {
+    for (int i = 1; i < SCS_T.length; i++) {
+      SCS_AREA[i] = SCS_AREA[i - 1] +
+                    (SCS_T[i] - SCS_T[i - 1]) * (SCS_Q[i] + SCS_Q[i - 1]) / 2;
+    }
+  }
+
+  private FlowShapes() {}
+
+  /**
+   * A flow_shape whose share for each day River can compute directly. Called
+   * from a script it behaves like any other shape: (day, flow_days) gives
+   * the share released on that 1-based day.
+   */
+  abstract static class FlowShape implements LoxCallable {
+    abstract double fraction(double day, double flowDays);
+
+    @Override
+    public int arity() {
+      return 2;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      if (arguments.get(0) instanceof Double day &&
+          arguments.get(1) instanceof Double flowDays) {
+        return fraction(day, flowDays);
+      }
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return "<native fn>";
+    }
+  }
+
+  // A shape given by its cumulative share released by time t of flowDays,
+  // with cumulative(flowDays, flowDays) == 1.
+  private abstract static class Cumulative extends FlowShape {
+    abstract double cumulative(double t, double flowDays);
+
+    @Override
+    double fraction(double day, double flowDays) {
+      if (!(flowDays > 0))
+        return 0.0;
+      double from = Math.min(day - 1, flowDays);
+      double to = Math.min(day, flowDays);
+      if (to <= 0 || from >= to)
+        return 0.0;
+      double before = from <= 0 ? 0.0 : cumulative(from, flowDays);
+      return cumulative(to, flowDays) - before;
+    }
+  }
+
+  static void define(Environment globals) {
+    globals.define("Shape_Linear", new FlowShape() {
+      @Override
+      double fraction(double day, double flowDays) {
+        return 1 / flowDays;
+      }
+    });
+
+    globals.define("Shape_LastDay", new FlowShape() {
+      @Override
+      double fraction(double day, double flowDays) {
+        return day == flowDays ? 1.0 : 0.0;
+      }
+    });
+
+    globals.define("Shape_SCS", new Cumulative() {
+      @Override
+      double cumulative(double t, double flowDays) {
+        return scsArea(5 * t / flowDays) / SCS_AREA[SCS_AREA.length - 1];
+      }
+    });
+
+    define(globals, "Shape_Exponential", 1, "a rate between 0 and 1", args -> {
+      double rate = args[0];
+      if (!(rate > 0 && rate < 1))
+        return null;
+      double decay = -Math.log1p(-rate);
+      return new Cumulative() {
+        @Override
+        double cumulative(double t, double flowDays) {
+          return -Math.expm1(-decay * t) / -Math.expm1(-decay * flowDays);
+        }
+      };
+    });
+
+    define(globals, "Shape_Triangular", 1, "a peak between 0 and 1", args -> {
+      double peak = args[0];
+      if (!(peak >= 0 && peak <= 1))
+        return null;
+      return new Cumulative() {
+        @Override
+        double cumulative(double t, double flowDays) {
+          double top = peak * flowDays;
+          if (t <= top)
+            return t * t / (flowDays * top);
+          double rest = flowDays - t;
+          return 1 - rest * rest / (flowDays * (flowDays - top));
+        }
+      };
+    });
+
+    define(globals, "Shape_Nash", 2, "positive n and k", args -> {
+      double n = args[0];
+      double k = args[1];
+      if (!(n > 0 && k > 0) || Double.isInfinite(n) || Double.isInfinite(k))
+        return null;
+      return new Cumulative() {
+        @Override
+        double cumulative(double t, double flowDays) {
+          return gammaP(n, t / k) / gammaP(n, flowDays / k);
+        }
+      };
+    });
+  }
+
+  private interface Maker {
+    // The shape for the given parameters, or null if they are out of range.
+    FlowShape make(double[] args);
+  }
+
+  // A native taking numeric parameters and returning a shape.
+  private static void define(Environment globals, String name, int arity,
+                             String expects, Maker maker) {
+    Token where = new Token(TokenType.IDENTIFIER, name, null, 0);
+    globals.define(name, new LoxCallable() {
+      @Override
+      public int arity() {
+        return arity;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        double[] args = new double[arity];
+        for (int i = 0; i < arity; i++) {
+          if (!(arguments.get(i) instanceof Double d))
+            throw new RuntimeError(where, name + " expects " + expects + ".");
+          args[i] = d;
+        }
+        FlowShape shape = maker.make(args);
+        if (shape == null)
+          throw new RuntimeError(where, name + " expects " + expects + ".");
+        return shape;
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+  }
+
+  // Area under the SCS curve up to x = t / Tp.
+  private static double scsArea(double x) {
+    if (x <= 0)
+      return 0.0;
+    int last = SCS_T.length - 1;
+    if (x >= SCS_T[last])
+      return SCS_AREA[last];
+    int i = 1;
+    while (SCS_T[i] < x)
+      i++;
+    double dx = x - SCS_T[i - 1];
+    double slope = (SCS_Q[i] - SCS_Q[i - 1]) / (SCS_T[i] - SCS_T[i - 1]);
+    return SCS_AREA[i - 1] + dx * (SCS_Q[i - 1] + slope * dx / 2);
+  }
+
+  // The regularized lower incomplete gamma function P(a, x): a series below
+  // a + 1, a continued fraction for the upper part above it.
+  static double gammaP(double a, double x) {
+    if (x <= 0)
+      return 0.0;
+    double front = Math.exp(a * Math.log(x) - x - logGamma(a));
+    if (x < a + 1) {
+      double term = 1 / a;
+      double sum = term;
+      for (int n = 1; n < 1000; n++) {
+        term *= x / (a + n);
+        sum += term;
+        if (Math.abs(term) < Math.abs(sum) * 1e-16)
+          break;
+      }
+      return Math.min(1.0, sum * front);
+    }
+    double tiny = 1e-300;
+    double b = x + 1 - a;
+    double c = 1 / tiny;
+    double d = 1 / b;
+    double h = d;
+    for (int i = 1; i < 1000; i++) {
+      double an = -i * (i - a);
+      b += 2;
+      d = an * d + b;
+      if (Math.abs(d) < tiny)
+        d = tiny;
+      c = b + an / c;
+      if (Math.abs(c) < tiny)
+        c = tiny;
+      d = 1 / d;
+      double delta = d * c;
+      h *= delta;
+      if (Math.abs(delta - 1) < 1e-16)
+        break;
+    }
+    return Math.max(0.0, 1 - front * h);
+  }
+
+  // ln(Gamma(x)) for x > 0, by the Lanczos approximation (g = 7).
+  private static double logGamma(double x) {
+    if (x < 0.5)
+      return Math.log(Math.PI / Math.sin(Math.PI * x)) - logGamma(1 - x);
+    double[] c = {0.99999999999980993,  676.5203681218851,
+                  -1259.1392167224028,  771.32342877765313,
+                  -176.61502916214059,  12.507343278686905,
+                  -0.13857109526572012, 9.9843695780195716e-6,
+                  1.5056327351493116e-7};
+    x -= 1;
+    double sum = c[0];
+    for (int i = 1; i < c.length; i++)
+      sum += c[i] / (x + i);
+    double t = x + 7.5;
+    return 0.5 * Math.log(2 * Math.PI) + (x + 0.5) * Math.log(t) - t +
+        Math.log(sum);
+  }
+}
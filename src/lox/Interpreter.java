@@ -1,17 +1,44 @@
 package lox;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
-
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A thread's execution context for a program. The session, globals and
+ * resolved local depths are shared by every context of one Lox session and
+ * are not written once execution starts; the current environment and the
+ * output stream belong to this context alone. Use fork() to get a context for
+ * another thread rather than sharing one.
+ */
 class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-  final Environment globals = new Environment();
-  private Environment environment = globals;
-  private final Map<Expr, Integer> locals = new HashMap<>();
+  final Lox lox;
+  final Environment globals;
+  private Environment environment;
+  private final Map<Expr, Integer> locals;
+  final PrintStream out;
+  // The interpreter a parallel task was forked from, which is waiting on it.
+  private final Interpreter parent;
+  // Environments of the callers of the Lox functions running now, outermost
+  // first.
+  private final List<Environment> callers = new ArrayList<>();
+
+  Interpreter(Lox lox) {
+    this.lox = lox;
+    globals = new Environment();
+    environment = globals;
+    locals = new HashMap<>();
+    out = lox.out;
+    parent = null;
 
-  Interpreter() {
     globals.define("clock", new LoxCallable() {
       @Override
       public int arity() {
@@ -30,8 +57,6 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     });
 
     globals.define("randN", new LoxCallable() {
-      Random random = new Random();
-
       @Override
       public int arity() {
         return 1;
@@ -44,7 +69,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
           return 0;
         }
 
-        return Double.valueOf(random.nextInt(((Double)arg).intValue()));
+        return Double.valueOf(
+            ThreadLocalRandom.current().nextInt(((Double)arg).intValue()));
       }
 
       @Override
@@ -61,8 +87,8 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
       @Override
       public Object call(Interpreter interpreter, List<Object> arguments) {
-        System.out.print("\033[H\033[2J");
-        System.out.flush();
+        interpreter.out.print("\033[H\033[2J");
+        interpreter.out.flush();
         return null;
       }
 
@@ -173,57 +199,68 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       }
     });
 
-    globals.define("Shape_Linear", new LoxCallable() {
-      @Override
-      public int arity() {
-        return 2;
-      }
-
-      @Override
-      public Object call(Interpreter interpreter, List<Object> arguments) {
-        Object arg1 = arguments.get(0);
-        Object arg2 = arguments.get(1);
-
-        if (arg1 instanceof Double && arg2 instanceof Double maxDays) {
-          return 1 / maxDays;
-        }
-
-        return null;
-      }
-
-      @Override
-      public String toString() {
-        return "<native fn>";
-      }
-    });
-
-    globals.define("Shape_LastDay", new LoxCallable() {
-      @Override
-      public int arity() {
-        return 2;
-      }
-
-      @Override
-      public Object call(Interpreter interpreter, List<Object> arguments) {
-        Object arg1 = arguments.get(0);
-        Object arg2 = arguments.get(1);
-
-        if (arg1 instanceof Double day && arg2 instanceof Double maxDays) {
-          if (day.equals(maxDays)) {
-            return (double)1;
-          }
-
-          return (double)0;
-        }
-
-        return null;
-      }
-
-      @Override
-      public String toString() {
-        return "<native fn>";
-      }
-    });
+    FlowShapes.define(globals);
+    NativeArrays.define(globals);
+    Parallel.define(globals);
+    NativeNetwork.define(globals);
+    RainfallFile.define(globals);
+    SimulationResult.define(globals);
+    SimulationCache.define(globals);
+    NetworkEdit.define(globals);
+  }
+
+  // A new context on the same program: shares the session, globals and
+  // resolved locals but tracks its own current environment and writes to its
+  // own out.
+  private Interpreter(Interpreter parent, PrintStream out) {
+    this.lox = parent.lox;
+    this.globals = parent.globals;
+    this.environment = parent.globals;
+    this.locals = parent.locals;
+    this.out = out;
+    this.parent = parent;
+  }
+
+  Interpreter fork(PrintStream out) { return new Interpreter(this, out); }
+
+  // Water nodes the running script can still reach: through the variables
+  // of its current scope or of any caller's, and through the lists, maps,
+  // instances and closures they hold.
+  List<WaterNode> reachableNodes() {
+    List<Environment> roots = new ArrayList<>();
+    for (Interpreter i = this; i != null; i = i.parent) {
+      roots.add(i.environment);
+      roots.addAll(i.callers);
+    }
+
+    Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    // A stack rather than a deque, since variables may hold nil.
+    List<Object> queue = new ArrayList<>(roots);
+    List<WaterNode> found = new ArrayList<>();
+    while (!queue.isEmpty()) {
+      Object value = queue.remove(queue.size() - 1);
+      if (value == null || !seen.add(value))
+        continue;
+      if (value instanceof NativeWaterNode node) {
+        found.add(node.node);
+      } else if (value instanceof Environment e) {
+        queue.addAll(e.values());
+        queue.add(e.enclosing);
+      } else if (value instanceof List<?> list) {
+        queue.addAll(list);
+      } else if (value instanceof LoxMap map) {
+        queue.addAll(map.values());
+      } else if (value instanceof LoxInstance instance) {
+        queue.addAll(instance.fields());
+        queue.add(instance.klass());
+      } else if (value instanceof LoxClass klass) {
+        queue.addAll(klass.methods());
+        queue.add(klass.superclass);
+      } else if (value instanceof LoxFunction function) {
+        queue.add(function.closure());
+      }
+    }
+    return found;
   }
 
   @Override
@@ -295,6 +332,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     return out;
   }
 
+  @Override
+  public Object visitDictionaryExpr(Expr.Dictionary expr) {
+    LoxMap map = new LoxMap();
+    for (int i = 0; i < expr.keys.size(); i++) {
+      Object key = evaluate(expr.keys.get(i));
+      map.put(expr.brace, key, evaluate(expr.values.get(i)));
+    }
+    return map;
+  }
+
   @Override
   public Object visitUnaryExpr(Expr.Unary expr) {
     Object right = evaluate(expr.right);
@@ -333,13 +380,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         execute(statement);
       }
     } catch (RuntimeError error) {
-      Lox.runtimeError(error);
+      lox.runtimeError(error);
     }
   }
 
   private void execute(Stmt stmt) { stmt.accept(this); }
 
-  void resolve(Expr expr, int depth) { locals.put(expr, depth); }
+  void resolve(Map<Expr, Integer> resolved) { locals.putAll(resolved); }
 
   private void checkNumberOperand(Token operator, Object operand) {
     if (operand instanceof Double)
@@ -392,6 +439,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
   private Object evaluate(Expr expr) { return expr.accept(this); }
 
+  // Runs a function body, remembering the caller's environment while it does.
+  void executeCall(List<Stmt> body, Environment environment) {
+    callers.add(this.environment);
+    try {
+      executeBlock(body, environment);
+    } finally {
+      callers.remove(callers.size() - 1);
+    }
+  }
+
   void executeBlock(List<Stmt> statements, Environment environment) {
     Environment previous = this.environment;
     try {
@@ -478,13 +535,46 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
   }
 
   void printString(Object value) {
+    if (value instanceof TableReport report) {
+      try {
+        report.writeTo(out);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      out.println();
+      return;
+    }
+
     if (!(value instanceof String)) {
       String toPrint = stringify(value);
-      System.out.println(toPrint);
+      out.println(toPrint);
       return;
     }
 
-    System.out.println((String)value);
+    out.println((String)value);
+  }
+
+  @Override
+  public Void visitParallelForStmt(Stmt.ParallelFor stmt) {
+    Object iterable = evaluate(stmt.iterable);
+    if (!(iterable instanceof List<?> items)) {
+      throw new RuntimeError(stmt.keyword, "'parallel for' expects an array.");
+    }
+
+    Environment enclosing = environment;
+    List<Stmt> body = List.of(stmt.body);
+    Parallel.run(this, items.size(), (worker, i) -> {
+      Environment scope = new Environment(enclosing);
+      scope.define(stmt.name.lexeme, items.get(i));
+      try {
+        worker.executeBlock(body, scope);
+      } catch (Return returnValue) {
+        throw new RuntimeError(stmt.keyword,
+                               "Can't return from inside 'parallel for'.");
+      }
+      return null;
+    });
+    return null;
   }
 
   @Override
@@ -626,6 +716,18 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       return n.get(expr.name);
     }
 
+    if (object instanceof LoxMap map) {
+      return map.getProperty(expr.name);
+    }
+
+    if (object instanceof Rainfall rainfall) {
+      return rainfall.getProperty(expr.name);
+    }
+
+    if (object instanceof SimulationResult result) {
+      return result.getProperty(expr.name);
+    }
+
     if (object instanceof LoxInstance loxInstance) {
       return loxInstance.get(expr.name);
     }
@@ -642,10 +744,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       Double area = getDouble(stmt, "area");
       LoxCallable flowShape = getLambda(stmt, "flow_shape", 2);
       node = new NativeWaterNode(
-          new River(this, name, area, flowDays, flowShape));
+          new River(name, area, flowDays, flowShape));
     } else if (stmt.kind.type == TokenType.DAM) {
       LoxCallable outFlow = getLambda(stmt, "out_flow", 3);
-      node = new NativeWaterNode(new Dam(this, name, outFlow));
+      node = new NativeWaterNode(new Dam(name, outFlow));
     } else {
       throw new RuntimeError(stmt.name, "Unknown node kind.");
     }
@@ -661,6 +763,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         !(down instanceof NativeWaterNode)) {
       throw new RuntimeError(stmt.arrow, "Connections require water nodes.");
     }
+    if (Parallel.isShared(((NativeWaterNode)up).owner) ||
+        Parallel.isShared(((NativeWaterNode)down).owner)) {
+      throw Parallel.sharedWrite(stmt.arrow, "water node");
+    }
     ((NativeWaterNode)down).addInflow((NativeWaterNode)up);
     return null;
   }
@@ -687,7 +793,13 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
       throw new RuntimeError(stmt.name, "Missing property '" + key + "'.");
     }
 
-    Object v = evaluate(e);
+    return nodeFunction(stmt.name, key, evaluate(e), expectedArgs);
+  }
+
+  // A node property that takes a function; a plain number stands for a
+  // function that always returns it.
+  static LoxCallable nodeFunction(Token where, String key, Object v,
+                                  int expectedArgs) {
     if (v instanceof Double val) {
       return new LoxCallable() {
         @Override
@@ -710,16 +822,16 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     // Already callable (lambda or function)
     if (v instanceof LoxCallable f) {
       if (f.arity() != expectedArgs) {
-        throw new RuntimeError(stmt.name, "Property '" + key + "' must be a " +
-                                              expectedArgs +
-                                              " argument lambda or number.");
+        throw new RuntimeError(where, "Property '" + key + "' must be a " +
+                                          expectedArgs +
+                                          " argument lambda or number.");
       }
       return f;
     }
 
-    throw new RuntimeError(stmt.name, "Property '" + key +
-                                          "' must be number, unit, or a " +
-                                          expectedArgs + " arg lambda.");
+    throw new RuntimeError(where, "Property '" + key +
+                                      "' must be number, unit, or a " +
+                                      expectedArgs + " arg lambda.");
   }
 
   @Override
@@ -3,30 +3,80 @@ package lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * One interpreter session: its globals, error flags and output streams. Each
+ * session is independent, so several scripts can run in the same JVM at once
+ * as long as each has its own Lox.
+ */
 public class Lox {
-  static boolean hadError = false;
-  static boolean hadRuntimeError = false;
-  private static final Interpreter interpreter = new Interpreter();
+  boolean hadError = false;
+  boolean hadRuntimeError = false;
+  final PrintStream out;
+  final PrintStream err;
+  final SimulationCache simulationCache = new SimulationCache();
+  private final Interpreter interpreter;
+
+  Lox() { this(System.out, System.err); }
+
+  Lox(PrintStream out, PrintStream err) {
+    this.out = out;
+    this.err = err;
+    this.interpreter = new Interpreter(this);
+  }
 
   public static void main(String[] args) throws IOException {
+    if (args.length == 2 && args[0].equals("--serve")) {
+      Server.serve(args[1]);
+      return;
+    }
+    if (args.length == 3 && args[0].equals("--submit")) {
+      System.exit(Server.submit(args[1], args[2]));
+    }
+
+    Lox lox = new Lox();
     if (args.length > 1) {
       System.out.println("Usage: jlox [script]");
+      System.out.println("       jlox --serve <port|socket>");
+      System.out.println("       jlox --submit <port|socket> <script|->");
       System.exit(64);
     } else if (args.length == 1) {
-      runFile(args[0]);
+      lox.runFile(args[0]);
     } else {
-      runPrompt();
+      lox.runPrompt();
     }
   }
 
-  private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+  private void runFile(String path) throws IOException {
+    Path script = Paths.get(path);
+    ByteBuffer source;
+    try (FileChannel channel = FileChannel.open(script)) {
+      source = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+
+    // Large scripts keep a compiled snapshot next to the source.
+    Program program = null;
+    byte[] hash = null;
+    if (source.limit() >= Snapshot.MIN_SOURCE_BYTES) {
+      hash = Snapshot.sha256(source);
+      program = Snapshot.load(script, hash);
+    }
+    if (program == null) {
+      program = compile(source);
+      if (program != null && hash != null)
+        Snapshot.save(script, hash, program);
+    }
+    if (program != null)
+      execute(program);
 
     // Indicate an error in the exit code.
     if (hadError)
@@ -35,7 +85,7 @@ public class Lox {
       System.exit(70);
   }
 
-  private static void runPrompt() throws IOException {
+  private void runPrompt() throws IOException {
     InputStreamReader input = new InputStreamReader(System.in);
     BufferedReader reader = new BufferedReader(input);
 
@@ -48,33 +98,65 @@ public class Lox {
     }
   }
 
-  private static void run(String source) {
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-    Parser parser = new Parser(tokens);
+  void run(String source) {
+    Program program = compile(source);
+    if (program != null)
+      execute(program);
+  }
+
+  /**
+   * Scans, parses and resolves source. Returns null if there was an error. The
+   * result holds no session state, so it can be executed by other sessions.
+   */
+  Program compile(String source) {
+    return compile(ByteBuffer.wrap(source.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /** Compiles UTF-8 source bytes, such as a memory-mapped script. */
+  Program compile(ByteBuffer source) {
+    Scanner scanner = new Scanner(source, this);
+    TokenStream tokens = scanner.scanTokens();
+    Parser parser = new Parser(tokens, this);
     List<Stmt> statements = parser.parse();
 
     // Stop if there was a syntax error.
     if (hadError)
-      return;
+      return null;
 
-    Resolver resolver = new Resolver(interpreter);
+    Map<Expr, Integer> locals = new HashMap<>();
+    Resolver resolver = new Resolver(this, locals);
     resolver.resolve(statements);
 
     if (hadError)
-      return;
+      return null;
+
+    return new Program(statements, locals);
+  }
+
+  void execute(Program program) {
+    interpreter.resolve(program.locals);
+    interpreter.interpret(program.statements);
+  }
 
-    interpreter.interpret(statements);
+  // A parsed and resolved script.
+  static final class Program {
+    final List<Stmt> statements;
+    final Map<Expr, Integer> locals;
+
+    Program(List<Stmt> statements, Map<Expr, Integer> locals) {
+      this.statements = statements;
+      this.locals = locals;
+    }
   }
 
-  static void error(int line, String message) { report(line, "", message); }
+  void error(int line, String message) { report(line, "", message); }
 
-  private static void report(int line, String where, String message) {
-    System.err.println("[line " + line + "] Error" + where + ": " + message);
+  private void report(int line, String where, String message) {
+    err.println("[line " + line + "] Error" + where + ": " + message);
     hadError = true;
   }
 
-  static void error(Token token, String message) {
+  void error(Token token, String message) {
     if (token.type == TokenType.EOF) {
       report(token.line, " at end", message);
     } else {
@@ -82,8 +164,8 @@ public class Lox {
     }
   }
 
-  static void runtimeError(RuntimeError error) {
-    System.err.println(error.getMessage() + "\n[line " + error.token.line +
+  void runtimeError(RuntimeError error) {
+    err.println(error.getMessage() + "\n[line " + error.token.line +
                        "]");
     hadRuntimeError = true;
   }
@@ -1,5 +1,6 @@
 package lox;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -14,6 +15,8 @@ class LoxClass implements LoxCallable {
     this.methods = methods;
   }
 
+  Collection<LoxFunction> methods() { return methods.values(); }
+
   LoxFunction findMethod(String name) {
     if (methods.containsKey(name)) {
       return methods.get(name);
@@ -26,6 +26,8 @@ class LoxFunction implements LoxCallable {
     this.isInitializer = false;
   }
 
+  Environment closure() { return closure; }
+
   LoxFunction bind(LoxInstance instance) {
     Environment environment = new Environment(closure);
     environment.define("this", instance);
@@ -58,7 +60,7 @@ class LoxFunction implements LoxCallable {
     }
 
     try {
-      interpreter.executeBlock(body, environment);
+      interpreter.executeCall(body, environment);
     } catch (Return returnValue) {
       if (isInitializer) {
         return closure.getAt(0, "this");
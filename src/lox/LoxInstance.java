@@ -1,14 +1,20 @@
 package lox;
 
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
 class LoxInstance {
   private LoxClass klass;
   private final Map<String, Object> fields = new HashMap<>();
+  private final Object owner = Parallel.currentTask();
 
   LoxInstance(LoxClass klass) { this.klass = klass; }
 
+  LoxClass klass() { return klass; }
+
+  Collection<Object> fields() { return fields.values(); }
+
   Object get(Token name) {
     if (fields.containsKey(name.lexeme)) {
       return fields.get(name.lexeme);
@@ -21,7 +27,12 @@ class LoxInstance {
     throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
   }
 
-  void set(Token name, Object value) { fields.put(name.lexeme, value); }
+  void set(Token name, Object value) {
+    if (Parallel.isShared(owner)) {
+      throw Parallel.sharedWrite(name, "field '" + name.lexeme + "'");
+    }
+    fields.put(name.lexeme, value);
+  }
 
   @Override
   public String toString() {
@@ -0,0 +1,250 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Lox map value. Keys are strings or numbers. Entries live in dense,
+ * insertion-ordered arrays and an open-addressed (linear probing) index of
+ * entry positions sits in front of them, so lookups never allocate and
+ * iteration order is stable.
+ */
+final class LoxMap {
+  private static final int EMPTY = -1;
+  private static final int MIN_CAPACITY = 8;
+
+  // Slot -> entry position. Always at least twice the entry capacity.
+  private int[] index;
+  // Entry arrays; a removed entry keeps its position with a null key.
+  private Object[] keys;
+  private Object[] values;
+  private int[] hashes;
+  private int count = 0;
+  private int size = 0;
+  private final Object owner = Parallel.currentTask();
+
+  LoxMap() { allocate(MIN_CAPACITY); }
+
+  int size() { return size; }
+
+  Object get(Token where, Object key) {
+    int e = find(checkKey(where, key));
+    return e == EMPTY ? null : values[e];
+  }
+
+  boolean containsKey(Token where, Object key) {
+    return find(checkKey(where, key)) != EMPTY;
+  }
+
+  void put(Token where, Object key, Object value) {
+    checkKey(where, key);
+    if (Parallel.isShared(owner))
+      throw Parallel.sharedWrite(where, "map");
+    int h = hash(key);
+    int mask = index.length - 1;
+    int slot = h & mask;
+    while (true) {
+      int e = index[slot];
+      if (e == EMPTY)
+        break;
+      if (hashes[e] == h && key.equals(keys[e])) {
+        values[e] = value;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+
+    if (count == keys.length) {
+      grow();
+      put(where, key, value);
+      return;
+    }
+
+    index[slot] = count;
+    keys[count] = key;
+    values[count] = value;
+    hashes[count] = h;
+    count++;
+    size++;
+  }
+
+  boolean remove(Token where, Object key) {
+    if (Parallel.isShared(owner))
+      throw Parallel.sharedWrite(where, "map");
+    int e = find(checkKey(where, key));
+    if (e == EMPTY)
+      return false;
+    // The index slot keeps pointing at the dead entry; a null key never
+    // matches, so it acts as a tombstone until the next rebuild.
+    keys[e] = null;
+    values[e] = null;
+    size--;
+    return true;
+  }
+
+  List<Object> keys() {
+    List<Object> out = new ArrayList<>(size);
+    for (int e = 0; e < count; e++) {
+      if (keys[e] != null)
+        out.add(keys[e]);
+    }
+    return out;
+  }
+
+  List<Object> values() {
+    List<Object> out = new ArrayList<>(size);
+    for (int e = 0; e < count; e++) {
+      if (keys[e] != null)
+        out.add(values[e]);
+    }
+    return out;
+  }
+
+  Object getProperty(Token name) {
+    switch (name.lexeme) {
+    case "size":
+      return (double)size;
+    case "keys":
+      return keys();
+    case "values":
+      return values();
+    case "get":
+      return method(name, 1, (interpreter, args) -> get(name, args.get(0)));
+    case "has":
+      return method(name, 1,
+                    (interpreter, args) -> containsKey(name, args.get(0)));
+    case "set":
+      return method(name, 2, (interpreter, args) -> {
+        put(name, args.get(0), args.get(1));
+        return args.get(1);
+      });
+    case "remove":
+      return method(name, 1, (interpreter, args) -> remove(name, args.get(0)));
+    case "each":
+      return method(name, 1, (interpreter, args) -> {
+        if (!(args.get(0) instanceof LoxCallable fn) || fn.arity() != 2) {
+          throw new RuntimeError(name, "Expected a 2 argument function.");
+        }
+        // Walk a snapshot so the callback may add or remove entries.
+        Object[] ks = keys;
+        Object[] vs = values;
+        int end = count;
+        for (int e = 0; e < end; e++) {
+          if (ks[e] != null)
+            fn.call(interpreter, Arrays.asList(ks[e], vs[e]));
+        }
+        return null;
+      });
+    default:
+      throw new RuntimeError(name, "Unknown property '" + name.lexeme + "'.");
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("{");
+    boolean first = true;
+    for (int e = 0; e < count; e++) {
+      if (keys[e] == null)
+        continue;
+      if (!first)
+        sb.append(", ");
+      first = false;
+      sb.append(keys[e]).append(": ").append(values[e]);
+    }
+    return sb.append('}').toString();
+  }
+
+  private interface Body {
+    Object call(Interpreter interpreter, List<Object> args);
+  }
+
+  private static LoxCallable method(Token name, int arity, Body body) {
+    return new LoxCallable() {
+      @Override
+      public int arity() {
+        return arity;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return body.call(interpreter, arguments);
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn " + name.lexeme + ">";
+      }
+    };
+  }
+
+  private static Object checkKey(Token where, Object key) {
+    if (key instanceof String || key instanceof Double)
+      return key;
+    throw new RuntimeError(where, "Map keys must be strings or numbers.");
+  }
+
+  private static int hash(Object key) {
+    int h;
+    if (key instanceof Double d) {
+      h = Long.hashCode(Double.doubleToLongBits(d));
+    } else {
+      h = key.hashCode();
+    }
+    // Fibonacci mix so sequential numbers and similar strings spread out.
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private int find(Object key) {
+    int h = hash(key);
+    int mask = index.length - 1;
+    int slot = h & mask;
+    while (true) {
+      int e = index[slot];
+      if (e == EMPTY)
+        return EMPTY;
+      if (hashes[e] == h && key.equals(keys[e]))
+        return e;
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private void allocate(int capacity) {
+    index = new int[capacity * 2];
+    Arrays.fill(index, EMPTY);
+    keys = new Object[capacity];
+    values = new Object[capacity];
+    hashes = new int[capacity];
+  }
+
+  // Compacts away removed entries, doubling capacity only if the live
+  // entries still fill more than half of it.
+  private void grow() {
+    Object[] oldKeys = keys;
+    Object[] oldValues = values;
+    int[] oldHashes = hashes;
+    int oldCount = count;
+
+    int capacity = keys.length;
+    if (size * 2 >= capacity)
+      capacity *= 2;
+    allocate(capacity);
+
+    count = 0;
+    int mask = index.length - 1;
+    for (int e = 0; e < oldCount; e++) {
+      if (oldKeys[e] == null)
+        continue;
+      int slot = oldHashes[e] & mask;
+      while (index[slot] != EMPTY)
+        slot = (slot + 1) & mask;
+      index[slot] = count;
+      keys[count] = oldKeys[e];
+      values[count] = oldValues[e];
+      hashes[count] = oldHashes[e];
+      count++;
+    }
+  }
+}
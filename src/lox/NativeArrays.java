@@ -0,0 +1,349 @@
+package lox;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Bulk numeric natives over Lox arrays. Every function unpacks its arguments
+ * into primitive arrays once, runs a plain Java loop and hands back a
+ * {@link NumberArray}, so chaining natives never re-boxes the series.
+ */
+final class NativeArrays {
+  // Arrays at least this long are split into chunks on the common pool.
+  static final int PARALLEL_THRESHOLD = 1 << 16;
+  private static final int CHUNK = 1 << 14;
+
+  private NativeArrays() {}
+
+  static void define(Environment globals) {
+    globals.define("sum", new ArrayNative("sum", 1) {
+      @Override
+      Object apply(List<Object> args) {
+        return sum(array(args, 0));
+      }
+    });
+
+    globals.define("mean", new ArrayNative("mean", 1) {
+      @Override
+      Object apply(List<Object> args) {
+        double[] a = array(args, 0);
+        if (a.length == 0) {
+          throw error("Cannot take the mean of an empty array.");
+        }
+        return sum(a) / a.length;
+      }
+    });
+
+    globals.define("cumsum", new ArrayNative("cumsum", 1) {
+      @Override
+      Object apply(List<Object> args) {
+        return new NumberArray(cumsum(array(args, 0)));
+      }
+    });
+
+    globals.define("scale", new ArrayNative("scale", 2) {
+      @Override
+      Object apply(List<Object> args) {
+        double[] a = array(args, 0);
+        double k = number(args, 1);
+        double[] out = new double[a.length];
+        forEachChunk(a.length, (from, to) -> {
+          for (int i = from; i < to; i++)
+            out[i] = a[i] * k;
+        });
+        return new NumberArray(out);
+      }
+    });
+
+    globals.define("add", new ArrayNative("add", 2) {
+      @Override
+      Object apply(List<Object> args) {
+        double[] a = array(args, 0);
+        double[] out = new double[a.length];
+        if (args.get(1) instanceof Double k) {
+          forEachChunk(a.length, (from, to) -> {
+            for (int i = from; i < to; i++)
+              out[i] = a[i] + k;
+          });
+          return new NumberArray(out);
+        }
+
+        double[] b = array(args, 1);
+        if (b.length != a.length) {
+          throw error("Arrays must have the same length (" + a.length +
+                      " vs " + b.length + ").");
+        }
+        forEachChunk(a.length, (from, to) -> {
+          for (int i = from; i < to; i++)
+            out[i] = a[i] + b[i];
+        });
+        return new NumberArray(out);
+      }
+    });
+
+    globals.define("convolve", new ArrayNative("convolve", 2) {
+      @Override
+      Object apply(List<Object> args) {
+        return new NumberArray(convolve(array(args, 0), array(args, 1)));
+      }
+    });
+
+    globals.define("range", new ArrayNative("range", 2) {
+      @Override
+      Object apply(List<Object> args) {
+        double start = number(args, 0);
+        double end = number(args, 1);
+        double length = Math.max(0.0, Math.ceil(end - start));
+        if (!(length <= Integer.MAX_VALUE)) {
+          throw error("A range can have at most " + Integer.MAX_VALUE +
+                      " numbers.");
+        }
+        int n = (int)length;
+        double[] out = new double[n];
+        forEachChunk(n, (from, to) -> {
+          for (int i = from; i < to; i++)
+            out[i] = start + i;
+        });
+        return new NumberArray(out);
+      }
+    });
+
+    globals.define("fill", new ArrayNative("fill", 2) {
+      @Override
+      Object apply(List<Object> args) {
+        double[] out = new double[count(args, 0)];
+        Arrays.fill(out, number(args, 1));
+        return new NumberArray(out);
+      }
+    });
+
+    globals.define("window_max", new ArrayNative("window_max", 2) {
+      @Override
+      Object apply(List<Object> args) {
+        double w = whole(args, 1);
+        if (w == 0) {
+          throw error("Window must be at least 1.");
+        }
+        // A window longer than the array covers all of it.
+        return new NumberArray(
+            windowMax(array(args, 0), (int)Math.min(w, Integer.MAX_VALUE)));
+      }
+    });
+
+    globals.define("percentile", new ArrayNative("percentile", 2) {
+      @Override
+      Object apply(List<Object> args) {
+        double[] a = array(args, 0);
+        double p = number(args, 1);
+        if (a.length == 0) {
+          throw error("Cannot take a percentile of an empty array.");
+        }
+        if (p < 0 || p > 100) {
+          throw error("Percentile must be between 0 and 100.");
+        }
+        return percentile(a, p);
+      }
+    });
+  }
+
+  /**
+   * Unpacks a Lox array into a primitive array. Arrays produced by natives are
+   * returned as-is; callers must not write to the result.
+   */
+  static double[] toDoubleArray(Object value, Token where) {
+    if (value instanceof NumberArray numbers) {
+      return numbers.values;
+    }
+    if (value instanceof Rainfall rainfall) {
+      return rainfall.toArray();
+    }
+    if (!(value instanceof List<?> list)) {
+      throw new RuntimeError(where, "Expected array (list) of numbers.");
+    }
+    double[] out = new double[list.size()];
+    for (int i = 0; i < list.size(); i++) {
+      Object v = list.get(i);
+      if (v instanceof Double d) {
+        out[i] = d;
+      } else {
+        throw new RuntimeError(where, "Array element " + i +
+                                          " is not a number or unit.");
+      }
+    }
+    return out;
+  }
+
+  static double sum(double[] a) {
+    if (a.length < PARALLEL_THRESHOLD) {
+      double total = 0.0;
+      for (double v : a)
+        total += v;
+      return total;
+    }
+
+    // Fixed chunking keeps the rounding independent of scheduling.
+    double[] partial = new double[(a.length + CHUNK - 1) / CHUNK];
+    IntStream.range(0, partial.length).parallel().forEach(c -> {
+      int to = Math.min(a.length, (c + 1) * CHUNK);
+      double total = 0.0;
+      for (int i = c * CHUNK; i < to; i++)
+        total += a[i];
+      partial[c] = total;
+    });
+    double total = 0.0;
+    for (double v : partial)
+      total += v;
+    return total;
+  }
+
+  static double[] cumsum(double[] a) {
+    double[] out = a.clone();
+    if (out.length < PARALLEL_THRESHOLD) {
+      for (int i = 1; i < out.length; i++)
+        out[i] += out[i - 1];
+    } else {
+      Arrays.parallelPrefix(out, Double::sum);
+    }
+    return out;
+  }
+
+  // Full discrete convolution; the result has a.length + kernel.length - 1
+  // entries (or none if either input is empty).
+  static double[] convolve(double[] a, double[] kernel) {
+    if (a.length == 0 || kernel.length == 0)
+      return new double[0];
+
+    double[] out = new double[a.length + kernel.length - 1];
+    forEachChunk(out.length, (from, to) -> {
+      for (int i = from; i < to; i++) {
+        int kFrom = Math.max(0, i - a.length + 1);
+        int kTo = Math.min(kernel.length - 1, i);
+        double acc = 0.0;
+        for (int k = kFrom; k <= kTo; k++)
+          acc += a[i - k] * kernel[k];
+        out[i] = acc;
+      }
+    });
+    return out;
+  }
+
+  // Trailing window: out[i] = max(a[i - window + 1 .. i]). Uses van
+  // Herk/Gil-Werman block prefix and suffix maxima so the work is O(n) for
+  // any window and each block is independent.
+  static double[] windowMax(double[] a, int window) {
+    int n = a.length;
+    if (n == 0)
+      return new double[0];
+    int w = Math.min(window, n);
+    double[] prefix = new double[n];
+    double[] suffix = new double[n];
+    int blocks = (n + w - 1) / w;
+
+    IntStream blockRange = IntStream.range(0, blocks);
+    if (n >= PARALLEL_THRESHOLD)
+      blockRange = blockRange.parallel();
+    blockRange.forEach(b -> {
+      int from = b * w;
+      int to = Math.min(n, from + w);
+      prefix[from] = a[from];
+      for (int i = from + 1; i < to; i++)
+        prefix[i] = Math.max(prefix[i - 1], a[i]);
+      suffix[to - 1] = a[to - 1];
+      for (int i = to - 2; i >= from; i--)
+        suffix[i] = Math.max(suffix[i + 1], a[i]);
+    });
+
+    double[] out = new double[n];
+    forEachChunk(n, (from, to) -> {
+      for (int i = from; i < to; i++) {
+        out[i] = i < w - 1 ? prefix[i]
+                           : Math.max(suffix[i - w + 1], prefix[i]);
+      }
+    });
+    return out;
+  }
+
+  // Linear interpolation between closest ranks; p is in [0, 100].
+  static double percentile(double[] a, double p) {
+    double[] sorted = a.clone();
+    Arrays.parallelSort(sorted);
+    double rank = p / 100.0 * (sorted.length - 1);
+    int lo = (int)Math.floor(rank);
+    int hi = (int)Math.ceil(rank);
+    return sorted[lo] + (sorted[hi] - sorted[lo]) * (rank - lo);
+  }
+
+  interface RangeBody {
+    void run(int from, int to);
+  }
+
+  static void forEachChunk(int n, RangeBody body) {
+    if (n < PARALLEL_THRESHOLD) {
+      body.run(0, n);
+      return;
+    }
+    int chunks = (n + CHUNK - 1) / CHUNK;
+    IntStream.range(0, chunks).parallel().forEach(
+        c -> body.run(c * CHUNK, Math.min(n, (c + 1) * CHUNK)));
+  }
+
+  private abstract static class ArrayNative implements LoxCallable {
+    private final int arity;
+    private final Token where;
+
+    ArrayNative(String name, int arity) {
+      this.arity = arity;
+      this.where = new Token(TokenType.IDENTIFIER, name, null, 0);
+    }
+
+    abstract Object apply(List<Object> args);
+
+    @Override
+    public int arity() {
+      return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      return apply(arguments);
+    }
+
+    @Override
+    public String toString() {
+      return "<native fn>";
+    }
+
+    RuntimeError error(String message) {
+      return new RuntimeError(where, where.lexeme + ": " + message);
+    }
+
+    double[] array(List<Object> args, int index) {
+      return toDoubleArray(args.get(index), where);
+    }
+
+    double number(List<Object> args, int index) {
+      if (args.get(index) instanceof Double d)
+        return d;
+      throw error("Argument " + (index + 1) + " must be a number.");
+    }
+
+    double whole(List<Object> args, int index) {
+      double d = number(args, index);
+      if (d < 0 || d != Math.floor(d)) {
+        throw error("Argument " + (index + 1) +
+                    " must be a non-negative whole number.");
+      }
+      return d;
+    }
+
+    int count(List<Object> args, int index) {
+      double d = whole(args, index);
+      if (d > Integer.MAX_VALUE) {
+        throw error("Argument " + (index + 1) + " must be at most " +
+                    Integer.MAX_VALUE + ".");
+      }
+      return (int)d;
+    }
+  }
+}
@@ -0,0 +1,267 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * load_network(nodesPath, edgesPath) builds a basin straight from files
+ * instead of one river/dam declaration and >> statement at a time. Each node
+ * is bound to a global of the same name, and the call returns a map of the
+ * loaded nodes by name in file order. Flow shapes and release rules are named
+ * globals (a function, or a number for a constant).
+ *
+ * Each file is CSV or binary, told apart by its first four bytes.
+ *
+ * Nodes CSV: a header row, then kind,name,area,flow_days,function where kind
+ * is river or dam. Area may carry an area unit suffix (10sqkm, 250ha) and is
+ * sqkm otherwise; function is the flow_shape of a river or the out_flow of a
+ * dam. Dams leave area and flow_days empty.
+ *
+ * Edges CSV: a header row, then from,to. Names may also refer to nodes the
+ * script declared itself.
+ *
+ * Binary files are big-endian. Nodes: int 'RLXN', int count, then per node a
+ * kind byte (0 river, 1 dam), name, double area in sqkm, double flow_days and
+ * function name. Edges: int 'RLXE', int count, then int from and int to per
+ * edge, as indices into the nodes file. Names are an unsigned short length
+ * and that many UTF-8 bytes.
+ */
+final class NativeNetwork {
+  static final int NODES_MAGIC = 0x524c584e;
+  static final int EDGES_MAGIC = 0x524c5845;
+  private static final Token WHERE =
+      new Token(TokenType.IDENTIFIER, "load_network", null, 0);
+
+  private NativeNetwork() {}
+
+  static void define(Environment globals) {
+    globals.define("load_network", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 2;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return new Loader(interpreter.globals)
+            .load(path(arguments.get(0)), path(arguments.get(1)));
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+  }
+
+  private static Path path(Object value) {
+    if (!(value instanceof String s))
+      throw error("Paths must be strings.");
+    return Path.of(s);
+  }
+
+  private static RuntimeError error(String message) {
+    return new RuntimeError(WHERE, WHERE.lexeme + ": " + message);
+  }
+
+  private static final class Loader {
+    private final Environment globals;
+    private final LoxMap loaded = new LoxMap();
+    private final List<NativeWaterNode> order = new ArrayList<>();
+    private final Map<String, LoxCallable> shapes = new HashMap<>();
+    private final Map<String, LoxCallable> releases = new HashMap<>();
+    private Path file;
+    private ChannelReader reader;
+
+    Loader(Environment globals) { this.globals = globals; }
+
+    LoxMap load(Path nodes, Path edges) {
+      if (Parallel.currentTask() != null)
+        throw Parallel.sharedWrite(WHERE, "globals");
+
+      read(nodes, true);
+      read(edges, false);
+      return loaded;
+    }
+
+    private void read(Path path, boolean nodes) {
+      file = path;
+      try (ChannelReader in = new ChannelReader(path)) {
+        reader = in;
+        if (nodes) {
+          if (in.startsWith(NODES_MAGIC))
+            binaryNodes();
+          else
+            csvNodes();
+        } else {
+          if (in.startsWith(EDGES_MAGIC))
+            binaryEdges();
+          else
+            csvEdges();
+        }
+      } catch (IOException e) {
+        throw error("Could not read '" + path + "': " + e.getMessage());
+      }
+    }
+
+    private void csvNodes() throws IOException {
+      List<String> row = new ArrayList<>(5);
+      boolean header = true;
+      while (reader.readRow(row)) {
+        if (header) {
+          header = false;
+          continue;
+        }
+        if (row.size() != 5)
+          throw rowError("Expected kind,name,area,flow_days,function.");
+        switch (row.get(0)) {
+        case "river":
+          river(row.get(1), area(row.get(2)), number(row.get(3), "flow_days"),
+                row.get(4));
+          break;
+        case "dam":
+          dam(row.get(1), row.get(4));
+          break;
+        default:
+          throw rowError("Unknown node kind '" + row.get(0) + "'.");
+        }
+      }
+    }
+
+    private void binaryNodes() throws IOException {
+      reader.readInt();
+      int count = reader.readInt();
+      for (int i = 0; i < count; i++) {
+        int kind = reader.readByte();
+        String name = reader.readString();
+        double area = reader.readDouble();
+        double flowDays = reader.readDouble();
+        String function = reader.readString();
+        if (kind == 0) {
+          river(name, area, flowDays, function);
+        } else if (kind == 1) {
+          dam(name, function);
+        } else {
+          throw error(file + ": node " + i + " has unknown kind " + kind + ".");
+        }
+      }
+    }
+
+    private void csvEdges() throws IOException {
+      List<String> row = new ArrayList<>(2);
+      boolean header = true;
+      while (reader.readRow(row)) {
+        if (header) {
+          header = false;
+          continue;
+        }
+        if (row.size() != 2)
+          throw rowError("Expected from,to.");
+        connect(node(row.get(0)), node(row.get(1)));
+      }
+    }
+
+    private void binaryEdges() throws IOException {
+      reader.readInt();
+      int count = reader.readInt();
+      for (int i = 0; i < count; i++) {
+        int from = reader.readInt();
+        int to = reader.readInt();
+        if (from < 0 || from >= order.size() || to < 0 || to >= order.size()) {
+          throw error(file + ": edge " + i + " refers to a node that was " +
+                      "not loaded.");
+        }
+        connect(order.get(from), order.get(to));
+      }
+    }
+
+    private void river(String name, double area, double flowDays,
+                       String shape) {
+      LoxCallable flowShape =
+          function(shapes, shape, "flow_shape", 2, name);
+      bind(name, new River(name, area, flowDays, flowShape));
+    }
+
+    private void dam(String name, String release) {
+      bind(name, new Dam(name, function(releases, release, "out_flow", 3,
+                                        name)));
+    }
+
+    private void bind(String name, WaterNode node) {
+      NativeWaterNode wrapped = new NativeWaterNode(node);
+      globals.define(name, wrapped);
+      loaded.put(WHERE, name, wrapped);
+      order.add(wrapped);
+    }
+
+    private void connect(NativeWaterNode up, NativeWaterNode down) {
+      down.addInflow(up);
+    }
+
+    // Looks a function up by global name, once per name.
+    private LoxCallable function(Map<String, LoxCallable> cache, String name,
+                                 String key, int arity, String node) {
+      LoxCallable cached = cache.get(name);
+      if (cached != null)
+        return cached;
+
+      Token token = new Token(TokenType.IDENTIFIER, name, null, 0);
+      Object value;
+      try {
+        value = globals.get(token);
+      } catch (RuntimeError e) {
+        throw error(file + ": node '" + node + "' uses undefined " + key +
+                    " '" + name + "'.");
+      }
+      LoxCallable function =
+          Interpreter.nodeFunction(token, key, value, arity);
+      cache.put(name, function);
+      return function;
+    }
+
+    private NativeWaterNode node(String name) {
+      Object value = loaded.get(WHERE, name);
+      if (value == null) {
+        try {
+          value = globals.get(new Token(TokenType.IDENTIFIER, name, null, 0));
+        } catch (RuntimeError e) {
+          value = null;
+        }
+      }
+      if (!(value instanceof NativeWaterNode node))
+        throw rowError("Unknown node '" + name + "'.");
+      return node;
+    }
+
+    private double area(String text) {
+      int end = 0;
+      while (end < text.length() && !Character.isLetter(text.charAt(end)))
+        end++;
+      double value = number(text.substring(0, end), "area");
+      if (end == text.length())
+        return value;
+
+      UnitVal.Unit unit = UnitVal.Unit.parse(text.substring(end));
+      if (unit == null || unit.kind != UnitVal.Kind.AREA)
+        throw rowError("Area '" + text + "' must be in an area unit.");
+      return unit.toCanonical(value);
+    }
+
+    private double number(String text, String what) {
+      try {
+        return Double.parseDouble(text);
+      } catch (NumberFormatException e) {
+        throw rowError("Expected a number for " + what + ", got '" + text +
+                       "'.");
+      }
+    }
+
+    private RuntimeError rowError(String message) {
+      return error(file + " line " + reader.line() + ": " + message);
+    }
+  }
+}
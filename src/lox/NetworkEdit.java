@@ -0,0 +1,94 @@
+package lox;
+
+import java.util.List;
+
+/**
+ * Natives that change a network after it is built, for scenario analysis
+ * without rebuilding in a new run:
+ *
+ *   disconnect(a, b)          removes the a >> b edge
+ *   reconnect(a, from, to)    moves a's a >> from edge to a >> to
+ *   set_property(node, k, v)  sets area, flow_days or flow_shape of a river
+ *                             or out_flow of a dam, as its declaration would
+ *
+ * Each edit renews the version of the node whose inflows or behaviour
+ * changed, and drops the cached series of the nodes downstream of it (and of
+ * the nodes that now split the same outflow differently), so the next run
+ * only resimulates what the edit can affect.
+ */
+final class NetworkEdit {
+  private NetworkEdit() {}
+
+  private interface Edit {
+    void apply(Interpreter interpreter, Token where, List<Object> arguments);
+  }
+
+  static void define(Environment globals) {
+    define(globals, "disconnect", 2, (interpreter, where, arguments) -> {
+      WaterNode up = node(where, arguments.get(0));
+      WaterNode down = node(where, arguments.get(1));
+      disconnect(where, up, down);
+      invalidate(interpreter, up.outflows);
+      invalidate(interpreter, List.of(down));
+    });
+    define(globals, "reconnect", 3, (interpreter, where, arguments) -> {
+      WaterNode up = node(where, arguments.get(0));
+      WaterNode from = node(where, arguments.get(1));
+      WaterNode to = node(where, arguments.get(2));
+      disconnect(where, up, from);
+      to.addInflow(up);
+      invalidate(interpreter, up.outflows);
+      invalidate(interpreter, List.of(from));
+    });
+    define(globals, "set_property", 3, (interpreter, where, arguments) -> {
+      WaterNode node = node(where, arguments.get(0));
+      if (!(arguments.get(1) instanceof String key))
+        throw new RuntimeError(where, "Property names must be strings.");
+      node.set(where, key, arguments.get(2));
+      invalidate(interpreter, List.of(node));
+    });
+  }
+
+  private static void define(Environment globals, String name, int arity,
+                             Edit edit) {
+    Token where = new Token(TokenType.IDENTIFIER, name, null, 0);
+    globals.define(name, new LoxCallable() {
+      @Override
+      public int arity() {
+        return arity;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        edit.apply(interpreter, where, arguments);
+        return null;
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+  }
+
+  private static WaterNode node(Token where, Object value) {
+    if (!(value instanceof NativeWaterNode node))
+      throw new RuntimeError(where, where.lexeme + " expects water nodes.");
+    if (Parallel.isShared(node.owner))
+      throw Parallel.sharedWrite(where, "water node");
+    return node.node;
+  }
+
+  private static void disconnect(Token where, WaterNode up, WaterNode down) {
+    if (!down.removeInflow(up)) {
+      throw new RuntimeError(where, "No edge from '" + up.name + "' to '" +
+                                        down.name + "'.");
+    }
+  }
+
+  private static void invalidate(Interpreter interpreter,
+                                 List<WaterNode> nodes) {
+    for (WaterNode node : nodes)
+      interpreter.lox.simulationCache.invalidate(node);
+  }
+}
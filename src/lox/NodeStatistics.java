@@ -0,0 +1,132 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * summarize(days, rainfall, options): per-node statistics folded in as the
+ * simulation steps, so no daily series is kept for any node. Options (all
+ * optional):
+ *
+ *   nodes      names (or nodes) to summarize; the simulated node by default
+ *   of         "outflow" (default) or "storage"
+ *   above      a threshold in litres; counts the days over it
+ *   quantiles  percentiles (0 to 100) to estimate with a QuantileSketch
+ *
+ * Returns a map from node name to a map of max, argmax (the 1-based day of
+ * the first max), sum, and above and quantiles when asked for.
+ *
+ * Nodes not asked about are never read, so river-only headwaters run as one
+ * superposed stage per node they drain into, which makes ensembles of many
+ * rainfall scenarios over river catchments cheap.
+ */
+final class NodeStatistics implements Simulation.Observer {
+  private final boolean storage;
+  private final double threshold;
+  private final QuantileSketch sketch;
+  private double max = Double.NEGATIVE_INFINITY;
+  private int argmax = -1;
+  private double sum = 0.0;
+  private int above = 0;
+
+  private NodeStatistics(boolean storage, double threshold,
+                         QuantileSketch sketch) {
+    this.storage = storage;
+    this.threshold = threshold;
+    this.sketch = sketch;
+  }
+
+  @Override
+  public void observe(int day, double outflow, double storage) {
+    double value = this.storage ? storage : outflow;
+    if (value > max) {
+      max = value;
+      argmax = day;
+    }
+    sum += value;
+    if (value > threshold)
+      above++;
+    if (sketch != null)
+      sketch.add(value);
+  }
+
+  static LoxMap summarize(Interpreter interpreter, Simulation simulation,
+                          Object options, Token where) {
+    if (options != null && !(options instanceof LoxMap))
+      throw new RuntimeError(where, "Summary options must be a map or nil.");
+    LoxMap map = options == null ? new LoxMap() : (LoxMap)options;
+    for (Object key : map.keys()) {
+      if (!List.of("nodes", "of", "above", "quantiles").contains(key))
+        throw new RuntimeError(where, "Unknown summary option '" + key + "'.");
+    }
+
+    Object of = map.containsKey(where, "of") ? map.get(where, "of") : "outflow";
+    if (!of.equals("outflow") && !of.equals("storage"))
+      throw new RuntimeError(where, "Summaries are of outflow or storage.");
+    Object threshold = map.get(where, "above");
+    if (threshold != null && !(threshold instanceof Double))
+      throw new RuntimeError(where, "Summary threshold must be a number.");
+    double[] percents = map.containsKey(where, "quantiles")
+                            ? NativeArrays.toDoubleArray(
+                                  map.get(where, "quantiles"), where)
+                            : new double[0];
+    for (double p : percents) {
+      if (p < 0 || p > 100)
+        throw new RuntimeError(where, "Percentile must be between 0 and 100.");
+    }
+
+    List<Integer> nodes = new ArrayList<>();
+    if (map.containsKey(where, "nodes")) {
+      if (!(map.get(where, "nodes") instanceof List<?> names))
+        throw new RuntimeError(where, "Summary nodes must be a list.");
+      for (Object name : names) {
+        String key = name instanceof NativeWaterNode n ? n.node.name
+                     : name instanceof String s        ? s
+                                                       : null;
+        int i = key == null ? -1 : simulation.indexOf(key);
+        if (i < 0) {
+          throw new RuntimeError(where,
+                                 "No node '" + name + "' in this simulation.");
+        }
+        nodes.add(i);
+      }
+    } else {
+      nodes.add(simulation.nodes.size() - 1);
+    }
+
+    List<NodeStatistics> stats = new ArrayList<>();
+    for (int i : nodes) {
+      NodeStatistics s = new NodeStatistics(
+          of.equals("storage"),
+          threshold == null ? Double.POSITIVE_INFINITY : (Double)threshold,
+          percents.length > 0 ? new QuantileSketch() : null);
+      simulation.observe(i, s);
+      stats.add(s);
+    }
+    // Only the observed nodes are read, so river-only headwaters and plain
+    // river chains between them can run as single stages.
+    simulation.superpose();
+    simulation.collapseChains();
+    while (!simulation.isDone())
+      simulation.step(interpreter);
+
+    LoxMap out = new LoxMap();
+    for (int k = 0; k < nodes.size(); k++) {
+      NodeStatistics s = stats.get(k);
+      LoxMap result = new LoxMap();
+      result.put(where, "max", s.argmax < 0 ? null : s.max);
+      result.put(where, "argmax", s.argmax < 0 ? null : (double)(s.argmax + 1));
+      result.put(where, "sum", s.sum);
+      if (threshold != null)
+        result.put(where, "above", (double)s.above);
+      if (s.sketch != null) {
+        LoxMap quantiles = new LoxMap();
+        for (double p : percents)
+          quantiles.put(where, p, s.sketch.quantile(p));
+        result.put(where, "quantiles", quantiles);
+      }
+      out.put(where, simulation.nodes.get(nodes.get(k)).name, result);
+    }
+    return out;
+  }
+}
@@ -0,0 +1,27 @@
+package lox;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Lox array backed by a primitive double[]. Behaves like any other Lox array
+ * (a List of Doubles) but lets natives read and produce numeric series without
+ * boxing every element.
+ */
+final class NumberArray extends AbstractList<Object> implements RandomAccess {
+  final double[] values;
+
+  NumberArray(double[] values) { this.values = values; }
+
+  double at(int index) { return values[index]; }
+
+  @Override
+  public Object get(int index) {
+    return values[index];
+  }
+
+  @Override
+  public int size() {
+    return values.length;
+  }
+}
@@ -0,0 +1,146 @@
+package lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs Lox callbacks on a fork/join pool for parallel_map and parallel for.
+ *
+ * Each task gets its own forked Interpreter (so the current environment is
+ * per task) and its own output buffer, which is flushed in index order once
+ * every task is done. Environments, instances, maps and water nodes remember
+ * which task created them; a task writing to anything it did not create is a
+ * runtime error rather than a data race.
+ */
+final class Parallel {
+  private static final ForkJoinPool POOL =
+      new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                       Worker::new, null, false);
+
+  private Parallel() {}
+
+  interface Body {
+    Object run(Interpreter worker, int index);
+  }
+
+  static void define(Environment globals) {
+    globals.define("parallel_map", new LoxCallable() {
+      private final Token where =
+          new Token(TokenType.IDENTIFIER, "parallel_map", null, 0);
+
+      @Override
+      public int arity() {
+        return 2;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (!(arguments.get(0) instanceof List<?> items)) {
+          throw new RuntimeError(where, "parallel_map expects an array.");
+        }
+        if (!(arguments.get(1) instanceof LoxCallable fn) || fn.arity() != 1) {
+          throw new RuntimeError(where,
+                                 "parallel_map expects a 1 argument function.");
+        }
+        return run(interpreter, items.size(),
+                   (worker, i) -> fn.call(worker, Arrays.asList(items.get(i))));
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+  }
+
+  /**
+   * Calls body for every index in [0, n) across the pool and returns the
+   * results in index order. If any task fails, the output of the tasks before
+   * it is still printed and the lowest-indexed error is rethrown.
+   */
+  static List<Object> run(Interpreter parent, int n, Body body) {
+    Object[] results = new Object[n];
+    ByteArrayOutputStream[] output = new ByteArrayOutputStream[n];
+    RuntimeException[] errors = new RuntimeException[n];
+
+    List<RecursiveAction> tasks = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      int index = i;
+      tasks.add(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          Worker thread = (Worker)Thread.currentThread();
+          Object saved = thread.task;
+          thread.task = new Object();
+          ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+          output[index] = buffer;
+          try {
+            Interpreter worker = parent.fork(
+                new PrintStream(buffer, true, StandardCharsets.UTF_8));
+            results[index] = body.run(worker, index);
+          } catch (RuntimeException error) {
+            errors[index] = error;
+          } finally {
+            thread.task = saved;
+          }
+        }
+      });
+    }
+
+    if (Thread.currentThread() instanceof Worker) {
+      ForkJoinTask.invokeAll(tasks);
+    } else {
+      POOL.invoke(new RecursiveAction() {
+        @Override
+        protected void compute() {
+          invokeAll(tasks);
+        }
+      });
+    }
+
+    for (int i = 0; i < n; i++) {
+      parent.out.print(output[i].toString(StandardCharsets.UTF_8));
+      if (errors[i] != null) {
+        parent.out.flush();
+        throw errors[i];
+      }
+    }
+    parent.out.flush();
+    return new ArrayList<>(Arrays.asList(results));
+  }
+
+  // Owner for objects created right now: the running task, or null when not
+  // inside a parallel task.
+  static Object currentTask() {
+    return Thread.currentThread() instanceof Worker w ? w.task : null;
+  }
+
+  // True when the running parallel task did not create the object owned by
+  // owner and so must not write to it.
+  static boolean isShared(Object owner) {
+    return Thread.currentThread() instanceof Worker w && w.task != null &&
+        w.task != owner;
+  }
+
+  static RuntimeError sharedWrite(Token where, String what) {
+    return new RuntimeError(where, "Parallel callback cannot modify shared " +
+                                       what + ".");
+  }
+
+  private static final class Worker extends ForkJoinWorkerThread {
+    private Object task;
+
+    Worker(ForkJoinPool pool) {
+      super(pool);
+      setDaemon(true);
+    }
+  }
+}
@@ -11,10 +11,18 @@ import java.util.Map;
 class Parser {
   private static class ParseError extends RuntimeException {}
 
-  private final List<Token> tokens;
+  private final TokenStream tokens;
+  private final Lox lox;
   private int current = 0;
+  // Tokens are only materialised when the grammar needs one; this caches the
+  // most recent so repeated previous() calls share it.
+  private Token previous;
+  private int previousIndex = -1;
 
-  Parser(List<Token> tokens) { this.tokens = tokens; }
+  Parser(TokenStream tokens, Lox lox) {
+    this.tokens = tokens;
+    this.lox = lox;
+  }
 
   List<Stmt> parse() {
     List<Stmt> statements = new ArrayList<>();
@@ -96,6 +104,8 @@ class Parser {
       return function("function");
     if (match(FOR))
       return forStatement();
+    if (match(PARALLEL))
+      return parallelForStatement();
     if (match(IF))
       return ifStatement();
     if (match(PRINT))
@@ -198,6 +208,19 @@ class Parser {
     return body;
   }
 
+  private Stmt parallelForStatement() {
+    Token keyword = previous();
+    consume(FOR, "Expect 'for' after 'parallel'.");
+    consume(LEFT_PAREN, "Expect '(' after 'for'.");
+    consume(VAR, "Expect 'var' in parallel for.");
+    Token name = consume(IDENTIFIER, "Expect loop variable name.");
+    consume(COLON, "Expect ':' after loop variable.");
+    Expr iterable = expression();
+    consume(RIGHT_PAREN, "Expect ')' after parallel for clause.");
+    Stmt body = statement();
+    return new Stmt.ParallelFor(keyword, name, iterable, body);
+  }
+
   private Stmt ifStatement() {
     consume(LEFT_PAREN, "Expect '(' after 'if'.");
     Expr condition = expression();
@@ -416,6 +439,8 @@ class Parser {
       return new Expr.Literal(previous().literal);
     if (match(LEFT_BRACKET))
       return arrayLiteral();
+    if (match(LEFT_BRACE))
+      return mapLiteral();
     if (match(FALSE))
       return new Expr.Literal(false);
     if (match(TRUE))
@@ -476,7 +501,7 @@ class Parser {
   private boolean checkAhead(int offset, TokenType type) {
     if (current + offset >= tokens.size())
       return false;
-    return tokens.get(current + offset).type == type;
+    return tokens.type(current + offset) == type;
   }
 
   private Expr arrayLiteral() {
@@ -490,10 +515,33 @@ class Parser {
     return new Expr.Array(elements);
   }
 
+  private Expr mapLiteral() {
+    Token brace = previous();
+    List<Expr> keys = new ArrayList<>();
+    List<Expr> values = new ArrayList<>();
+    if (!check(RIGHT_BRACE)) {
+      do {
+        if (check(RIGHT_BRACE))
+          break; // allow trailing comma
+        // A bare name before ':' is a string key, as in node properties.
+        if (check(IDENTIFIER) && checkNext(COLON)) {
+          Token key = advance();
+          keys.add(new Expr.Literal(key.lexeme));
+        } else {
+          keys.add(expression());
+        }
+        consume(COLON, "Expect ':' after map key.");
+        values.add(expression());
+      } while (match(COMMA));
+    }
+    consume(RIGHT_BRACE, "Expect '}' after map literal.");
+    return new Expr.Dictionary(brace, keys, values);
+  }
+
   private boolean match(TokenType... types) {
     for (TokenType type : types) {
       if (check(type)) {
-        advance();
+        step();
         return true;
       }
     }
@@ -511,34 +559,44 @@ class Parser {
   private boolean check(TokenType type) {
     if (isAtEnd())
       return false;
-    return peek().type == type;
+    return tokens.type(current) == type;
   }
 
   private Token advance() {
+    step();
+    return previous();
+  }
+
+  private void step() {
     if (!isAtEnd())
       current++;
-    return previous();
   }
 
-  private boolean isAtEnd() { return peek().type == EOF; }
+  private boolean isAtEnd() { return tokens.type(current) == EOF; }
 
-  private Token peek() { return tokens.get(current); }
+  private Token peek() { return tokens.token(current); }
 
-  private Token previous() { return tokens.get(current - 1); }
+  private Token previous() {
+    if (previousIndex != current - 1) {
+      previous = tokens.token(current - 1);
+      previousIndex = current - 1;
+    }
+    return previous;
+  }
 
   private ParseError error(Token token, String message) {
-    Lox.error(token, message);
+    lox.error(token, message);
     return new ParseError();
   }
 
   private void synchronize() {
-    advance();
+    step();
 
     while (!isAtEnd()) {
-      if (previous().type == SEMICOLON)
+      if (tokens.type(current - 1) == SEMICOLON)
         return;
 
-      switch (peek().type) {
+      switch (tokens.type(current)) {
       case CLASS:
       case FUN:
       case VAR:
@@ -550,7 +608,7 @@ class Parser {
         return;
       }
 
-      advance();
+      step();
     }
   }
 
@@ -559,6 +617,6 @@ class Parser {
       return false;
     if (current + 1 >= tokens.size())
       return false;
-    return tokens.get(current + 1).type == type;
+    return tokens.type(current + 1) == type;
   }
 }
\ No newline at end of file
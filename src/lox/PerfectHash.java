@@ -0,0 +1,90 @@
+package lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Read-only lookup table for a small fixed set of ASCII keys. The
+ * constructor searches for a hash seed under which no two keys share a slot,
+ * so a lookup is one hash over the candidate bytes plus one comparison.
+ * Lookups can read straight from a byte buffer, which lets the scanner match
+ * keywords and unit suffixes without making a String.
+ */
+final class PerfectHash<T> {
+  private final byte[][] keys;
+  private final Object[] values;
+  private final boolean ignoreCase;
+  private final int mask;
+  private final int seed;
+
+  // For duplicate keys (possible when ignoring case) the first one wins.
+  PerfectHash(String[] keys, T[] values, boolean ignoreCase) {
+    this.ignoreCase = ignoreCase;
+    int size = Integer.highestOneBit(Math.max(1, keys.length) * 4 - 1) << 1;
+    this.mask = size - 1;
+
+    for (int seed = 1;; seed++) {
+      byte[][] slots = new byte[size][];
+      Object[] slotValues = new Object[size];
+      if (place(keys, values, seed, slots, slotValues)) {
+        this.keys = slots;
+        this.values = slotValues;
+        this.seed = seed;
+        return;
+      }
+    }
+  }
+
+  private boolean place(String[] keys, T[] values, int seed, byte[][] slots,
+                        Object[] slotValues) {
+    for (int i = 0; i < keys.length; i++) {
+      byte[] key = keys[i].getBytes(StandardCharsets.US_ASCII);
+      ByteBuffer buffer = ByteBuffer.wrap(key);
+      int slot = hash(seed, buffer, 0, key.length) & mask;
+      if (slots[slot] != null) {
+        if (equal(slots[slot], buffer, 0, key.length))
+          continue;
+        return false;
+      }
+      slots[slot] = key;
+      slotValues[slot] = values[i];
+    }
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  T get(ByteBuffer source, int start, int length) {
+    int slot = hash(seed, source, start, length) & mask;
+    byte[] key = keys[slot];
+    if (key == null || !equal(key, source, start, length))
+      return null;
+    return (T)values[slot];
+  }
+
+  T get(String key) {
+    byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+    return get(ByteBuffer.wrap(bytes), 0, bytes.length);
+  }
+
+  private int fold(byte b) {
+    return ignoreCase && b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+  }
+
+  private int hash(int seed, ByteBuffer source, int start, int length) {
+    int h = seed * 0x9E3779B9 ^ length;
+    for (int i = start; i < start + length; i++) {
+      h = (h ^ fold(source.get(i))) * 0x01000193;
+    }
+    return h ^ (h >>> 15);
+  }
+
+  private boolean equal(byte[] key, ByteBuffer source, int start, int length) {
+    if (key.length != length)
+      return false;
+    for (int i = 0; i < length; i++) {
+      if (fold(key[i]) != fold(source.get(start + i)))
+        return false;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,269 @@
+package lox;
+
+import java.util.ArrayList;
+import java.util.List;
+import lox.PrintableTable.BarStyle;
+import lox.UnitVal.Kind;
+
+/**
+ * report(days, rainfall, options): calculate's tables cut down for long runs.
+ * Options (all optional):
+ *
+ *   from, to  the window of days to show, 1-based and inclusive
+ *   every     "day", "week", "month" or "year" per row; periods count from
+ *             day 1 and months follow a 365 day calendar starting in January
+ *   peaks     how many of the highest outflow days to list
+ *
+ * Each period is folded into running aggregates as the simulation steps, so
+ * a row per period is all that is kept: outflow total and peak, storage and
+ * river volumes at the end of the period, and outflow accumulated over the
+ * window.
+ */
+final class PeriodReport {
+  private static final int[] MONTH_START = {0,   31,  59,  90,  120, 151,
+                                            181, 212, 243, 273, 304, 334};
+
+  private final int from;
+  private final int to;
+  private final String every;
+  private final int peaks;
+
+  private PeriodReport(int from, int to, String every, int peaks) {
+    this.from = from;
+    this.to = to;
+    this.every = every;
+    this.peaks = peaks;
+  }
+
+  static PeriodReport of(Object options, int days, Token where) {
+    if (options != null && !(options instanceof LoxMap))
+      throw new RuntimeError(where, "Report options must be a map or nil.");
+    LoxMap map = options == null ? new LoxMap() : (LoxMap)options;
+    for (Object key : map.keys()) {
+      if (!List.of("from", "to", "every", "peaks").contains(key))
+        throw new RuntimeError(where, "Unknown report option '" + key + "'.");
+    }
+
+    int from = whole(map, "from", 1, where);
+    int to = whole(map, "to", days, where);
+    if (from < 1 || from > to || to > days) {
+      throw new RuntimeError(where, "Report window must satisfy 1 <= from <= " +
+                                        "to <= " + days + ".");
+    }
+    Object every = map.containsKey(where, "every") ? map.get(where, "every")
+                                                   : "day";
+    if (!List.of("day", "week", "month", "year").contains(every)) {
+      throw new RuntimeError(where, "Report periods are day, week, month or " +
+                                        "year.");
+    }
+    int peaks = whole(map, "peaks", 0, where);
+    if (peaks < 0)
+      throw new RuntimeError(where, "Peak count must not be negative.");
+    return new PeriodReport(from - 1, to, (String)every,
+                            Math.min(peaks, to - from + 1));
+  }
+
+  private static int whole(LoxMap map, String key, int fallback,
+                           Token where) {
+    if (!map.containsKey(where, key))
+      return fallback;
+    if (!(map.get(where, key) instanceof Double d) || d != Math.floor(d)) {
+      throw new RuntimeError(where, "Report option '" + key +
+                                        "' must be a whole number.");
+    }
+    return d.intValue();
+  }
+
+  // Period of a 0-based day.
+  private int period(int day) {
+    switch (every) {
+    case "week":
+      return day / 7;
+    case "month": {
+      int dayOfYear = day % 365;
+      int month = 11;
+      while (MONTH_START[month] > dayOfYear)
+        month--;
+      return day / 365 * 12 + month;
+    }
+    case "year":
+      return day / 365;
+    default:
+      return day;
+    }
+  }
+
+  TableReport run(Interpreter interpreter, Simulation simulation) {
+    int root = simulation.nodes.size() - 1;
+    String rootName = simulation.nodes.get(root).name;
+    List<Integer> rivers = new ArrayList<>();
+    for (int i = 0; i < simulation.nodes.size(); i++) {
+      if (simulation.nodes.get(i) instanceof River)
+        rivers.add(i);
+    }
+    rivers.sort((a, b) -> simulation.nodes.get(a).name.compareTo(
+                    simulation.nodes.get(b).name));
+
+    int rows = period(to - 1) - period(from) + 1;
+    int[] first = new int[rows];
+    int[] last = new int[rows];
+    double[] outflow = new double[rows];
+    double[] peak = new double[rows];
+    double[] storage = new double[rows];
+    double[] accumulated = new double[rows];
+    double[][] volumes = new double[rivers.size()][rows];
+    Peaks top = new Peaks(peaks);
+
+    int row = -1;
+    double accum = 0.0;
+    while (simulation.day() < to) {
+      simulation.step(interpreter);
+      int day = simulation.day() - 1;
+      if (day < from)
+        continue;
+
+      if (row < 0 || period(day) != period(day - 1)) {
+        row++;
+        first[row] = day + 1;
+        peak[row] = Double.NEGATIVE_INFINITY;
+      }
+      double out = simulation.outflow(root);
+      accum += out;
+      last[row] = day + 1;
+      outflow[row] += out;
+      peak[row] = Math.max(peak[row], out);
+      storage[row] = simulation.storage(root);
+      accumulated[row] = accum;
+      for (int r = 0; r < volumes.length; r++)
+        volumes[r][row] = simulation.storage(rivers.get(r));
+      top.offer(out, day + 1);
+    }
+
+    PrintableTable.Cells label = (r, column, out) -> {
+      if (first[r] == last[r])
+        out.append("Day ").append(first[r]);
+      else
+        out.append("Days ").append(first[r]).append('-').append(last[r]);
+    };
+
+    List<String> headers = new ArrayList<>();
+    headers.add("");
+    for (int r : rivers)
+      headers.add(simulation.nodes.get(r).name);
+    PrintableTable volumeTable = new PrintableTable(false, BarStyle.DOUBLE);
+    volumeTable
+        .addTitle(every.equals("day") ? " Volume (After Outflow) "
+                                      : " Volume (End of Period) ")
+        .addRow(headers)
+        .addHeaderDivider()
+        .addRows(rows, 1 + rivers.size(), (r, column, out) -> {
+          if (column == 0)
+            label.append(r, column, out);
+          else
+            UnitVal.appendCanonical(out, volumes[column - 1][r], Kind.VOLUME);
+        })
+        .addEndCap();
+
+    double[][] columns = {outflow, peak, storage, accumulated};
+    PrintableTable outflowTable = new PrintableTable(true, BarStyle.DOUBLE);
+    outflowTable.addTitle(" " + rootName + " Outflow ")
+        .addRow(List.of("", "Outflow", "Peak", "Storage", "Accumulated"))
+        .addHeaderDivider()
+        .addRows(rows, 5, (r, column, out) -> {
+          if (column == 0)
+            label.append(r, column, out);
+          else
+            UnitVal.appendCanonical(out, columns[column - 1][r], Kind.VOLUME);
+        })
+        .addEndCap();
+
+    List<PrintableTable> tables = new ArrayList<>(List.of(volumeTable,
+                                                          outflowTable));
+    if (peaks > 0) {
+      top.sort();
+      PrintableTable peakTable = new PrintableTable(true, BarStyle.DOUBLE);
+      peakTable.addTitle(" " + rootName + " Peak Days ")
+          .addRow(List.of("", "Outflow"))
+          .addHeaderDivider()
+          .addRows(top.size, 2, (r, column, out) -> {
+            if (column == 0)
+              out.append("Day ").append(top.days[r]);
+            else
+              UnitVal.appendCanonical(out, top.values[r], Kind.VOLUME);
+          })
+          .addEndCap();
+      tables.add(peakTable);
+    }
+    return new TableReport(tables);
+  }
+
+  // The n highest days seen so far, as a min-heap with the lowest (latest on
+  // ties) at the root until sort() puts them highest first.
+  private static final class Peaks {
+    final double[] values;
+    final int[] days;
+    int size = 0;
+
+    Peaks(int n) {
+      values = new double[n];
+      days = new int[n];
+    }
+
+    void offer(double value, int day) {
+      if (size < values.length) {
+        values[size] = value;
+        days[size] = day;
+        up(size++);
+      } else if (size > 0 && below(0, value, day)) {
+        values[0] = value;
+        days[0] = day;
+        down(0, size);
+      }
+    }
+
+    // Heap sort: each pass moves the lowest to the end.
+    void sort() {
+      for (int end = size - 1; end > 0; end--) {
+        swap(0, end);
+        down(0, end);
+      }
+    }
+
+    private boolean below(int i, double value, int day) {
+      return values[i] < value || values[i] == value && days[i] > day;
+    }
+
+    private void up(int i) {
+      while (i > 0) {
+        int parent = (i - 1) / 2;
+        if (!below(i, values[parent], days[parent]))
+          return;
+        swap(i, parent);
+        i = parent;
+      }
+    }
+
+    private void down(int i, int end) {
+      while (true) {
+        int low = i;
+        for (int child = 2 * i + 1; child <= 2 * i + 2 && child < end; child++) {
+          if (below(child, values[low], days[low]))
+            low = child;
+        }
+        if (low == i)
+          return;
+        swap(i, low);
+        i = low;
+      }
+    }
+
+    private void swap(int a, int b) {
+      double v = values[a];
+      values[a] = values[b];
+      values[b] = v;
+      int d = days[a];
+      days[a] = days[b];
+      days[b] = d;
+    }
+  }
+}
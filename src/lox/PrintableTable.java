@@ -1,12 +1,26 @@
 package lox;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * A box-drawn table rendered in two passes: one measures every column, the
+ * next streams the table a line at a time to an Appendable. Rows added with
+ * addRows are produced on demand in both passes instead of being stored, so a
+ * table over a long simulation costs its source data, not its text.
+ */
 public final class PrintableTable {
   public enum BarStyle { SINGLE, DOUBLE }
   public enum Align { LEFT, RIGHT, CENTER }
 
+  // Appends the text of one cell of a row source.
+  @FunctionalInterface
+  public interface Cells { void append(int row, int column, StringBuilder out); }
+
+  private static final String SPACES = " ".repeat(64);
+
   private final boolean leftFirst;
   private final BarStyle defaultBar;
   private final List<Element> elements = new ArrayList<>();
@@ -14,6 +28,7 @@ public final class PrintableTable {
   private interface Element {}
   private static final class Title implements Element { final String text; Title(String t){ text = t; } }
   private static final class Row implements Element { final List<String> cells; Row(List<String> c){ cells = c; } }
+  private static final class Rows implements Element { final int rows; final int columns; final Cells cells; Rows(int r, int c, Cells s){ rows = r; columns = c; cells = s; } }
   private static final class HeaderDivider implements Element { final BarStyle horizStyle; HeaderDivider(BarStyle s){ horizStyle = s; } }
   private static final class Divider implements Element { final BarStyle horizStyle; Divider(BarStyle s){ horizStyle = s; } }
   private static final class EndCap implements Element {}
@@ -26,156 +41,142 @@ public final class PrintableTable {
 
   public PrintableTable addTitle(String title) { elements.add(new Title(title)); return this; }
   public PrintableTable addRow(List<String> cells) { elements.add(new Row(new ArrayList<>(cells))); return this; }
+  public PrintableTable addRows(int rows, int columns, Cells cells) { elements.add(new Rows(rows, columns, cells)); return this; }
   public PrintableTable addHeaderDivider() { elements.add(new Divider(BarStyle.DOUBLE)); return this; }
   public PrintableTable addDivider() { elements.add(new HeaderDivider(BarStyle.SINGLE)); return this; }
   public PrintableTable addEndCap() { elements.add(new EndCap()); return this; }
 
   public String render() {
+    StringBuilder sb = new StringBuilder();
+    try {
+      renderTo(sb);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return sb.toString();
+  }
+
+  public void renderTo(Appendable out) throws IOException {
+    int[] widths = measure();
+    int tableW = tableWidth(widths);
+    StringBuilder line = new StringBuilder();
+    StringBuilder cell = new StringBuilder();
+
+    for (Element e : elements) {
+      line.setLength(0);
+      if (e instanceof Title t) {
+        renderTopWithTitle(line, t.text, tableW, defaultBar);
+        out.append(line);
+      } else if (e instanceof Row r) {
+        line.append(vert(defaultBar));
+        for (int i = 0; i < widths.length; i++) {
+          String s = i < r.cells.size() && r.cells.get(i) != null ? r.cells.get(i) : "";
+          appendCell(line, s, i, widths[i]);
+        }
+        out.append(line.append('\n'));
+      } else if (e instanceof Rows rs) {
+        for (int row = 0; row < rs.rows; row++) {
+          line.setLength(0);
+          line.append(vert(defaultBar));
+          for (int i = 0; i < widths.length; i++) {
+            cell.setLength(0);
+            if (i < rs.columns) rs.cells.append(row, i, cell);
+            appendCell(line, cell, i, widths[i]);
+          }
+          out.append(line.append('\n'));
+        }
+      } else if (e instanceof HeaderDivider hd) {
+        renderRule(line, widths, horizChar(hd.horizStyle), headerLeft(defaultBar), headerJoin(defaultBar), headerRight(defaultBar));
+        out.append(line);
+      } else if (e instanceof Divider d) {
+        renderRule(line, widths, horizChar(d.horizStyle), midLeft(defaultBar), midJoin(defaultBar), midRight(defaultBar));
+        out.append(line);
+      } else if (e instanceof EndCap) {
+        renderRule(line, widths, horizChar(defaultBar), bottomLeft(defaultBar), bottomJoin(defaultBar), bottomRight(defaultBar));
+        out.append(line);
+      }
+    }
+  }
+
+  @Override public String toString() { return render(); }
+
+  // First pass: the widest cell of each column, widened for the longest title.
+  private int[] measure() {
     int maxCols = 0;
-    for (Element e : elements) if (e instanceof Row r) maxCols = Math.max(maxCols, r.cells.size());
+    for (Element e : elements) {
+      if (e instanceof Row r) maxCols = Math.max(maxCols, r.cells.size());
+      else if (e instanceof Rows rs) maxCols = Math.max(maxCols, rs.columns);
+    }
     if (maxCols == 0) maxCols = 1;
 
-    List<Integer> widths = new ArrayList<>();
-    for (int i = 0; i < maxCols; i++) widths.add(0);
-
+    int[] widths = new int[maxCols];
+    StringBuilder cell = new StringBuilder();
     for (Element e : elements) {
       if (e instanceof Row r) {
         for (int i = 0; i < r.cells.size(); i++) {
           String s = r.cells.get(i) == null ? "" : r.cells.get(i);
-          widths.set(i, Math.max(widths.get(i), s.length()));
+          widths[i] = Math.max(widths[i], s.length());
+        }
+      } else if (e instanceof Rows rs) {
+        for (int row = 0; row < rs.rows; row++) {
+          for (int i = 0; i < rs.columns; i++) {
+            cell.setLength(0);
+            rs.cells.append(row, i, cell);
+            widths[i] = Math.max(widths[i], cell.length());
+          }
         }
       }
     }
-    for (int i = 0; i < widths.size(); i++) if (widths.get(i) <= 0) widths.set(i, 1);
+    for (int i = 0; i < widths.length; i++) if (widths[i] <= 0) widths[i] = 1;
 
     int tableW = tableWidth(widths);
     int maxTitleRequired = 0;
-    
+
     for (Element e : elements) {
       if (e instanceof Title t) {
         int req = t.text == null ? 0 : t.text.trim().length() + 4;
         if (req > maxTitleRequired) maxTitleRequired = req;
       }
     }
-    
-    if (maxTitleRequired > tableW) {
-      int extra = maxTitleRequired - tableW;
-      int last = widths.size() - 1;
-      widths.set(last, widths.get(last) + extra);
-      tableW = tableWidth(widths);
-    }
 
-    StringBuilder sb = new StringBuilder();
-    for (Element e : elements) {
-      if (e instanceof Title t) {
-        sb.append(renderTopWithTitle(t.text, tableW, defaultBar)).append('\n');
-      } else if (e instanceof Row r) {
-        sb.append(renderRowWithWidths(r.cells, widths, defaultBar));
-      } else if (e instanceof HeaderDivider hd) {
-        sb.append(renderHeaderDivider(widths, hd.horizStyle));
-      } else if (e instanceof Divider d) {
-        sb.append(renderMidDivider(widths, d.horizStyle));
-      } else if (e instanceof EndCap) {
-        sb.append(renderEndCap(widths, defaultBar));
-      }
-    }
-    return sb.toString();
+    if (maxTitleRequired > tableW) widths[widths.length - 1] += maxTitleRequired - tableW;
+    return widths;
   }
 
-  @Override public String toString() { return render(); }
-
-  private String renderTopWithTitle(String title, int totalWidth, BarStyle style) {
-    String t = " " + title.trim() + " ";
-    int inner = Math.max(0, totalWidth - 2 - t.length());
+  private void renderTopWithTitle(StringBuilder sb, String title, int totalWidth, BarStyle style) {
+    String t = title.trim();
+    int inner = Math.max(0, totalWidth - 2 - (t.length() + 2));
     int left = inner / 2;
     int right = inner - left;
-    StringBuilder sb = new StringBuilder();
     sb.append(topLeft(style));
-    sb.append(repeat(horizChar(style), left));
-    sb.append(t);
-    sb.append(repeat(horizChar(style), right));
-    sb.append(topRight(style));
-    return sb.toString();
+    repeat(sb, horizChar(style), left);
+    sb.append(' ').append(t).append(' ');
+    repeat(sb, horizChar(style), right);
+    sb.append(topRight(style)).append('\n');
   }
 
-  private String renderRowWithWidths(List<String> cells, List<Integer> widths, BarStyle bar) {
-    List<String> clipped = clipToWidths(cells, widths);
-    List<String> padded = new ArrayList<>(widths.size());
-    if (leftFirst) {
-      padded.add(padRight(clipped.get(0), widths.get(0)));
-      for (int i = 1; i < widths.size(); i++) padded.add(padLeft(clipped.get(i), widths.get(i)));
+  // Appends " cell |" padded to width; the first column is left aligned when leftFirst.
+  private void appendCell(StringBuilder sb, CharSequence s, int column, int width) {
+    int pad = Math.max(0, width - s.length());
+    sb.append(' ');
+    if (leftFirst && column == 0) {
+      sb.append(s, 0, Math.min(s.length(), width));
+      spaces(sb, pad);
     } else {
-      for (int i = 0; i < widths.size(); i++) padded.add(padLeft(clipped.get(i), widths.get(i)));
-    }
-    return renderRowPadded(padded);
-  }
-
-  private String renderRowPadded(List<String> padded) {
-    String v = vert(defaultBar);
-    StringBuilder sb = new StringBuilder();
-    sb.append(v).append(' ').append(padded.get(0)).append(' ').append(v);
-    for (int i = 1; i < padded.size(); i++) {
-      sb.append(' ').append(padded.get(i)).append(' ').append(v);
-    }
-    sb.append('\n');
-    return sb.toString();
-  }
-
-  private String renderHeaderDivider(List<Integer> widths, BarStyle horizStyle) {
-    char fill = horizChar(horizStyle);
-    String left = headerLeft(defaultBar);
-    String join = headerJoin(defaultBar);
-    String right = headerRight(defaultBar);
-    StringBuilder sb = new StringBuilder();
-    sb.append(left);
-    sb.append(repeat(fill, widths.get(0) + 2));
-    for (int i = 1; i < widths.size(); i++) {
-      sb.append(join);
-      sb.append(repeat(fill, widths.get(i) + 2));
+      spaces(sb, pad);
+      sb.append(s, 0, Math.min(s.length(), width));
     }
-    sb.append(right);
-    sb.append('\n');
-    return sb.toString();
+    sb.append(' ').append(vert(defaultBar));
   }
 
-  private String renderMidDivider(List<Integer> widths, BarStyle horizStyle) {
-    char fill = horizChar(horizStyle);
-    String left = midLeft(defaultBar);
-    String join = midJoin(defaultBar);
-    String right = midRight(defaultBar);
-    StringBuilder sb = new StringBuilder();
+  private static void renderRule(StringBuilder sb, int[] widths, char fill, String left, String join, String right) {
     sb.append(left);
-    sb.append(repeat(fill, widths.get(0) + 2));
-    for (int i = 1; i < widths.size(); i++) {
+    repeat(sb, fill, widths[0] + 2);
+    for (int i = 1; i < widths.length; i++) {
       sb.append(join);
-      sb.append(repeat(fill, widths.get(i) + 2));
-    }
-    sb.append(right);
-    sb.append('\n');
-    return sb.toString();
-  }
-
-  private String renderEndCap(List<Integer> widths, BarStyle style) {
-    StringBuilder sb = new StringBuilder();
-    sb.append(bottomLeft(defaultBar));
-    sb.append(repeat(horizChar(defaultBar), widths.get(0) + 2));
-    for (int i = 1; i < widths.size(); i++) {
-      sb.append(bottomJoin(defaultBar));
-      sb.append(repeat(horizChar(defaultBar), widths.get(i) + 2));
-    }
-    sb.append(bottomRight(defaultBar));
-    sb.append('\n');
-    return sb.toString();
-  }
-
-  private List<String> clipToWidths(List<String> cells, List<Integer> widths) {
-    List<String> out = new ArrayList<>(widths.size());
-    for (int i = 0; i < widths.size(); i++) {
-      String s = i < cells.size() && cells.get(i) != null ? cells.get(i) : "";
-      if (s.length() > widths.get(i)) s = s.substring(0, widths.get(i));
-      out.add(s);
+      repeat(sb, fill, widths[i] + 2);
     }
-    return out;
+    sb.append(right).append('\n');
   }
 
   private static String vert(BarStyle t) { return t == BarStyle.DOUBLE ? "║" : "│"; }
@@ -196,11 +197,10 @@ public final class PrintableTable {
   private static String headerRight(BarStyle t) { return t == BarStyle.DOUBLE ? "╢" : "┤"; }
   private static String headerJoin(BarStyle t) { return t == BarStyle.DOUBLE ? "╫" : "┼"; }
 
-  private static String padLeft(String s, int w) { int n = Math.max(0, w - s.length()); return " ".repeat(n) + s; }
-  private static String padRight(String s, int w) { int n = Math.max(0, w - s.length()); return s + " ".repeat(n); }
-  private static String repeat(char c, int n) { if (n <= 0) return ""; return String.valueOf(c).repeat(n); }
+  private static void spaces(StringBuilder sb, int n) { while (n > 0) { int k = Math.min(n, SPACES.length()); sb.append(SPACES, 0, k); n -= k; } }
+  private static void repeat(StringBuilder sb, char c, int n) { for (int i = 0; i < n; i++) sb.append(c); }
 
-  public static int tableWidth(List<Integer> widths) {
-    int sum = 0; for (int w : widths) sum += w; int k = widths.size(); return sum + (3 * k) + 1;
+  public static int tableWidth(int[] widths) {
+    int sum = 0; for (int w : widths) sum += w; int k = widths.length; return sum + (3 * k) + 1;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,96 @@
+package lox;
+
+import java.util.List;
+
+/**
+ * Daily rainfall in mm that simulations read by day index; days past the end
+ * have no rain. Lox arrays become array-backed series, rainfall_file gives
+ * file-backed ones that never get copied onto the heap.
+ */
+abstract class Rainfall implements RainfallSource {
+  abstract int days();
+
+  // Rainfall on day, for 0 <= day < days().
+  abstract double get(int day);
+
+  static Rainfall of(double[] values) {
+    return new Rainfall() {
+      @Override
+      int days() {
+        return values.length;
+      }
+
+      @Override
+      double get(int day) {
+        return values[day];
+      }
+    };
+  }
+
+  // A Rainfall value as is, or a Lox array of numbers as a series.
+  static Rainfall from(Object value, Token where) {
+    if (value instanceof Rainfall rainfall)
+      return rainfall;
+    return of(NativeArrays.toDoubleArray(value, where));
+  }
+
+  // Rainfall argument of a simulation: a map from node name to series, a
+  // CSV rainfall file whose header names the nodes, or one series for all.
+  static RainfallSource source(Object value, Token where) {
+    if (value instanceof LoxMap map)
+      return SpatialRainfall.of(map, where);
+    if (value instanceof RainfallFile file && file.names != null &&
+        file.columns > 1) {
+      return SpatialRainfall.byHeader(file, where);
+    }
+    return from(value, where);
+  }
+
+  @Override
+  public Rainfall forNode(WaterNode node) {
+    return this;
+  }
+
+  double[] toArray() {
+    double[] out = new double[days()];
+    for (int day = 0; day < out.length; day++)
+      out[day] = get(day);
+    return out;
+  }
+
+  Object getProperty(Token name) {
+    switch (name.lexeme) {
+    case "days":
+      return (double)days();
+    case "at":
+      return new LoxCallable() {
+        @Override
+        public int arity() {
+          return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+          if (!(arguments.get(0) instanceof Double d) || d != Math.floor(d) ||
+              d < 0 || d >= days()) {
+            throw new RuntimeError(name, "Day must be a whole number in [0, " +
+                                             days() + ").");
+          }
+          return get(d.intValue());
+        }
+
+        @Override
+        public String toString() {
+          return "<native fn at>";
+        }
+      };
+    default:
+      throw new RuntimeError(name, "Unknown property '" + name.lexeme + "'.");
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "<rainfall " + days() + " days>";
+  }
+}
@@ -0,0 +1,275 @@
+package lox;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * rainfall_file(path, format): rainfall read from a file, one row per day and
+ * one column per gauge. A simulation reads column 0 for every node, unless
+ * the file is a CSV whose header names nodes of the network being run; then
+ * each node reads the column named after it.
+ *
+ * "f64" and "f32" memory-map little-endian doubles or floats laid out row by
+ * row; append "xN" for N columns (e.g. "f32x24"). Mapped files are read in
+ * place, so they can be larger than the heap. "csv" streams comma separated
+ * rows into one primitive array; a first row that is not numeric names the
+ * columns.
+ */
+abstract class RainfallFile extends Rainfall {
+  private static final Token WHERE =
+      new Token(TokenType.IDENTIFIER, "rainfall_file", null, 0);
+
+  final int days;
+  final int columns;
+  // Column names from a CSV header, or null.
+  final List<String> names;
+
+  private RainfallFile(int days, int columns, List<String> names) {
+    this.days = days;
+    this.columns = columns;
+    this.names = names;
+  }
+
+  static void define(Environment globals) {
+    globals.define("rainfall_file", new LoxCallable() {
+      @Override
+      public int arity() {
+        return 2;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (!(arguments.get(0) instanceof String path) ||
+            !(arguments.get(1) instanceof String format)) {
+          throw error("Expects a path and a format string.");
+        }
+        return open(Path.of(path), format);
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+  }
+
+  static RainfallFile open(Path path, String format) {
+    try {
+      if (format.equals("csv"))
+        return Table.read(path);
+
+      int columns = 1;
+      int x = format.indexOf('x');
+      String type = x < 0 ? format : format.substring(0, x);
+      if (x >= 0) {
+        try {
+          columns = Integer.parseInt(format.substring(x + 1));
+        } catch (NumberFormatException e) {
+          columns = 0;
+        }
+      }
+      if (columns < 1 || !(type.equals("f64") || type.equals("f32"))) {
+        throw error("Unknown format '" + format +
+                    "'; expected csv, f64, f32, f64xN or f32xN.");
+      }
+      return Mapped.map(path, type.equals("f64") ? 8 : 4, columns);
+    } catch (IOException e) {
+      throw error("Could not read '" + path + "': " + e.getMessage());
+    }
+  }
+
+  abstract double value(int day, int column);
+
+  @Override
+  int days() {
+    return days;
+  }
+
+  @Override
+  double get(int day) {
+    return value(day, 0);
+  }
+
+  Rainfall column(int column) {
+    return new Rainfall() {
+      @Override
+      int days() {
+        return days;
+      }
+
+      @Override
+      double get(int day) {
+        return value(day, column);
+      }
+    };
+  }
+
+  @Override
+  Object getProperty(Token name) {
+    switch (name.lexeme) {
+    case "columns":
+      return (double)columns;
+    case "column":
+      return new LoxCallable() {
+        @Override
+        public int arity() {
+          return 1;
+        }
+
+        @Override
+        public Object call(Interpreter interpreter, List<Object> arguments) {
+          return column(columnIndex(name, arguments.get(0)));
+        }
+
+        @Override
+        public String toString() {
+          return "<native fn column>";
+        }
+      };
+    default:
+      return super.getProperty(name);
+    }
+  }
+
+  // A column by number, or by header name for CSV files.
+  int columnIndex(Token where, Object key) {
+    if (key instanceof String s && names != null && names.contains(s))
+      return names.indexOf(s);
+    if (key instanceof Double d && d == Math.floor(d) && d >= 0 &&
+        d < columns) {
+      return d.intValue();
+    }
+    throw new RuntimeError(where, "No rainfall column '" + key + "'.");
+  }
+
+  @Override
+  public String toString() {
+    return "<rainfall " + days + " days x " + columns + " columns>";
+  }
+
+  private static RuntimeError error(String message) {
+    return new RuntimeError(WHERE, WHERE.lexeme + ": " + message);
+  }
+
+  // Values read in place from the file, split into mappings of at most 1 GiB
+  // because a single MappedByteBuffer is int indexed.
+  private static final class Mapped extends RainfallFile {
+    private static final int SEGMENT_SHIFT = 30;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    private final MappedByteBuffer[] segments;
+    private final boolean doubles;
+
+    private Mapped(MappedByteBuffer[] segments, int days, int columns,
+                   boolean doubles) {
+      super(days, columns, null);
+      this.segments = segments;
+      this.doubles = doubles;
+    }
+
+    static Mapped map(Path path, int width, int columns) throws IOException {
+      try (FileChannel channel = FileChannel.open(path)) {
+        long size = channel.size();
+        long row = (long)width * columns;
+        if (size % row != 0) {
+          throw error("'" + path + "' is not a whole number of " + columns +
+                      " column rows.");
+        }
+        if (size / row > Integer.MAX_VALUE)
+          throw error("'" + path + "' has too many rows.");
+
+        int count = (int)((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] segments = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+          long start = (long)i << SEGMENT_SHIFT;
+          long length = Math.min(1L << SEGMENT_SHIFT, size - start);
+          segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                                    length);
+          segments[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return new Mapped(segments, (int)(size / row), columns, width == 8);
+      }
+    }
+
+    @Override
+    double value(int day, int column) {
+      // Segments are a multiple of the value width, so no value straddles two.
+      long index = (long)day * columns + column;
+      if (doubles) {
+        long offset = index << 3;
+        return segments[(int)(offset >>> SEGMENT_SHIFT)].getDouble(
+            (int)(offset & SEGMENT_MASK));
+      }
+      long offset = index << 2;
+      return segments[(int)(offset >>> SEGMENT_SHIFT)].getFloat(
+          (int)(offset & SEGMENT_MASK));
+    }
+  }
+
+  // CSV rows parsed into one row-major array.
+  private static final class Table extends RainfallFile {
+    private final double[] values;
+
+    private Table(double[] values, int days, int columns,
+                  List<String> names) {
+      super(days, columns, names);
+      this.values = values;
+    }
+
+    static Table read(Path path) throws IOException {
+      try (ChannelReader in = new ChannelReader(path)) {
+        List<String> row = new ArrayList<>();
+        List<String> names = null;
+        double[] values = new double[1024];
+        int count = 0;
+        int columns = -1;
+        while (in.readRow(row)) {
+          if (columns < 0) {
+            columns = row.size();
+            if (!isNumber(row.get(0))) {
+              names = new ArrayList<>(row);
+              continue;
+            }
+          }
+          if (row.size() != columns) {
+            throw error(path + " line " + in.line() + ": expected " + columns +
+                        " columns.");
+          }
+          if (count + columns > values.length)
+            values = Arrays.copyOf(values, 2 * (count + columns));
+          for (String field : row) {
+            try {
+              values[count++] = Double.parseDouble(field);
+            } catch (NumberFormatException e) {
+              throw error(path + " line " + in.line() + ": '" + field +
+                          "' is not a number.");
+            }
+          }
+        }
+        columns = Math.max(columns, 1);
+        return new Table(Arrays.copyOf(values, count), count / columns,
+                         columns, names);
+      }
+    }
+
+    private static boolean isNumber(String field) {
+      try {
+        Double.parseDouble(field);
+        return true;
+      } catch (NumberFormatException e) {
+        return false;
+      }
+    }
+
+    @Override
+    double value(int day, int column) {
+      return values[day * columns + column];
+    }
+  }
+}
@@ -0,0 +1,16 @@
+package lox;
+
+import java.util.List;
+
+/**
+ * Rainfall for a whole network. Each node asks once per simulation for its
+ * own series and then reads it by day. A single Rainfall series is the
+ * shorthand for the same rain everywhere.
+ */
+interface RainfallSource {
+  Rainfall forNode(WaterNode node);
+
+  // The source to read for a run over nodes, asked once per simulation
+  // before any forNode. Most sources are the same for every network.
+  default RainfallSource forNetwork(List<WaterNode> nodes) { return this; }
+}
@@ -6,11 +6,16 @@ import java.util.Map;
 import java.util.Stack;
 
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-  private final Interpreter interpreter;
+  private final Lox lox;
+  private final Map<Expr, Integer> locals;
   private final Stack<Map<String, Boolean>> scopes = new Stack<>();
   private FunctionType currentFunction = FunctionType.NONE;
 
-  Resolver(Interpreter interpreter) { this.interpreter = interpreter; }
+  // Resolved scope depths are written into locals.
+  Resolver(Lox lox, Map<Expr, Integer> locals) {
+    this.lox = lox;
+    this.locals = locals;
+  }
 
   private enum FunctionType { NONE, FUNCTION, INITIALIZER, METHOD }
 
@@ -46,7 +51,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     if (stmt.superclass != null) {
       if (stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-        Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+        lox.error(stmt.superclass.name, "A class can't inherit from itself.");
       }
 
       currentClass = ClassType.SUBCLASS;
@@ -126,15 +131,26 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitParallelForStmt(Stmt.ParallelFor stmt) {
+    resolve(stmt.iterable);
+    beginScope();
+    declare(stmt.name);
+    define(stmt.name);
+    resolve(stmt.body);
+    endScope();
+    return null;
+  }
+
   @Override
   public Void visitReturnStmt(Stmt.Return stmt) {
     if (currentFunction == FunctionType.NONE) {
-      Lox.error(stmt.keyword, "Can't return from top-level code.");
+      lox.error(stmt.keyword, "Can't return from top-level code.");
     }
 
     if (stmt.value != null) {
       if (currentFunction == FunctionType.INITIALIZER) {
-        Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+        lox.error(stmt.keyword, "Can't return a value from an initializer.");
       }
 
       resolve(stmt.value);
@@ -185,6 +201,15 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     return null;
   }
 
+  @Override
+  public Void visitDictionaryExpr(Expr.Dictionary expr) {
+    for (int i = 0; i < expr.keys.size(); i++) {
+      resolve(expr.keys.get(i));
+      resolve(expr.values.get(i));
+    }
+    return null;
+  }
+
   @Override
   public Void visitGetExpr(Expr.Get expr) {
     resolve(expr.object);
@@ -219,9 +244,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitSuperExpr(Expr.Super expr) {
     if (currentClass == ClassType.NONE) {
-      Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+      lox.error(expr.keyword, "Can't use 'super' outside of a class.");
     } else if (currentClass != ClassType.SUBCLASS) {
-      Lox.error(expr.keyword,
+      lox.error(expr.keyword,
                 "Can't use 'super' in a class with no superclass.");
     }
 
@@ -232,7 +257,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   @Override
   public Void visitThisExpr(Expr.This expr) {
     if (currentClass == ClassType.NONE) {
-      Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+      lox.error(expr.keyword, "Can't use 'this' outside of a class.");
       return null;
     }
 
@@ -250,7 +275,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   public Void visitVariableExpr(Expr.Variable expr) {
     if (!scopes.isEmpty() &&
         scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-      Lox.error(expr.name, "Can't read local variable in its own initializer.");
+      lox.error(expr.name, "Can't read local variable in its own initializer.");
     }
 
     resolveLocal(expr, expr.name);
@@ -311,7 +336,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     Map<String, Boolean> scope = scopes.peek();
 
     if (scope.containsKey(name.lexeme)) {
-      Lox.error(name, "Already a variable with this name in this scope.");
+      lox.error(name, "Already a variable with this name in this scope.");
     }
 
     scope.put(name.lexeme, false);
@@ -326,7 +351,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
   private void resolveLocal(Expr expr, Token name) {
     for (int i = scopes.size() - 1; i >= 0; i--) {
       if (scopes.get(i).containsKey(name.lexeme)) {
-        interpreter.resolve(expr, scopes.size() - 1 - i);
+        locals.put(expr, scopes.size() - 1 - i);
         return;
       }
     }
@@ -0,0 +1,146 @@
+package lox;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams the outflow and storage series of every node in a simulation to a
+ * file while it runs, so the full result never has to be in memory.
+ *
+ * "csv" writes one row per day: day, then outflow and storage in litres for
+ * each node, upstream nodes first.
+ *
+ * "bin" is columnar and little-endian: the bytes "RLXR", int version, int
+ * node count, int days, each node name as an unsigned short length and UTF-8
+ * bytes, zero padding to a multiple of 8 bytes, then for each node a column
+ * of outflow doubles followed by a column of storage doubles.
+ */
+final class ResultExport {
+  // "RLXR" once written little-endian.
+  static final int MAGIC = 0x52584c52;
+  static final int VERSION = 1;
+  // Upper bound on the column chunks buffered before each write.
+  private static final int CHUNK_BYTES = 32 << 20;
+
+  private ResultExport() {}
+
+  static void write(Interpreter interpreter, Simulation simulation, Path path,
+                    String format, Token where) {
+    try {
+      switch (format) {
+      case "csv":
+        csv(interpreter, simulation, path);
+        break;
+      case "bin":
+        binary(interpreter, simulation, path);
+        break;
+      default:
+        throw new RuntimeError(where, "Unknown export format '" + format +
+                                          "'; expected csv or bin.");
+      }
+    } catch (IOException e) {
+      throw new RuntimeError(where, "Could not write '" + path +
+                                        "': " + e.getMessage());
+    }
+  }
+
+  private static void csv(Interpreter interpreter, Simulation simulation,
+                          Path path) throws IOException {
+    int n = simulation.nodes.size();
+    try (BufferedWriter out =
+             Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+      out.write("day");
+      for (WaterNode node : simulation.nodes) {
+        out.write("," + node.name + " outflow," + node.name + " storage");
+      }
+      out.newLine();
+
+      while (!simulation.isDone()) {
+        simulation.step(interpreter);
+        out.write(Integer.toString(simulation.day()));
+        for (int i = 0; i < n; i++) {
+          out.write(',');
+          out.write(Double.toString(simulation.outflow(i)));
+          out.write(',');
+          out.write(Double.toString(simulation.storage(i)));
+        }
+        out.newLine();
+      }
+    }
+  }
+
+  private static void binary(Interpreter interpreter, Simulation simulation,
+                             Path path) throws IOException {
+    int n = simulation.nodes.size();
+    int days = simulation.days;
+    int columns = 2 * n;
+
+    try (FileChannel channel = FileChannel.open(
+             path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+             StandardOpenOption.TRUNCATE_EXISTING)) {
+      long dataStart = writeHeader(channel, simulation);
+
+      // Days buffered per column before each column chunk is written out.
+      int chunkDays =
+          (int)Math.max(1, Math.min(days, CHUNK_BYTES / (8L * columns)));
+      ByteBuffer chunk = ByteBuffer.allocateDirect(columns * chunkDays * 8)
+                             .order(ByteOrder.LITTLE_ENDIAN);
+
+      int first = 0;
+      while (!simulation.isDone()) {
+        int filled = 0;
+        while (filled < chunkDays && !simulation.isDone()) {
+          simulation.step(interpreter);
+          for (int i = 0; i < n; i++) {
+            chunk.putDouble(((2 * i) * chunkDays + filled) * 8,
+                            simulation.outflow(i));
+            chunk.putDouble(((2 * i + 1) * chunkDays + filled) * 8,
+                            simulation.storage(i));
+          }
+          filled++;
+        }
+
+        for (int c = 0; c < columns; c++) {
+          chunk.limit((c * chunkDays + filled) * 8).position(c * chunkDays * 8);
+          long position = dataStart + ((long)c * days + first) * 8;
+          while (chunk.hasRemaining())
+            position += channel.write(chunk, position);
+          chunk.clear();
+        }
+        first += filled;
+      }
+    }
+  }
+
+  // Writes the header and returns where the first column starts.
+  private static long writeHeader(FileChannel channel, Simulation simulation)
+      throws IOException {
+    byte[][] names = new byte[simulation.nodes.size()][];
+    int size = 16;
+    for (int i = 0; i < names.length; i++) {
+      names[i] = simulation.nodes.get(i).name.getBytes(StandardCharsets.UTF_8);
+      size += 2 + names[i].length;
+    }
+    int padded = (size + 7) & ~7;
+
+    ByteBuffer header =
+        ByteBuffer.allocate(padded).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC).putInt(VERSION).putInt(names.length).putInt(
+        simulation.days);
+    for (byte[] name : names) {
+      header.putShort((short)name.length);
+      header.put(name);
+    }
+    header.position(0);
+    while (header.hasRemaining())
+      channel.write(header);
+    return padded;
+  }
+}
@@ -2,18 +2,19 @@ package lox;
 
 import lox.UnitVal.Kind;
 import lox.UnitVal.Unit;
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 class River extends WaterNode {
-  private final double area;
-  private final double flowDays;
-  private final LoxCallable flowShape;
+  private double area;
+  private double flowDays;
+  private LoxCallable flowShape;
 
-  public River(Interpreter interpreter, String name, double area, double flowDays,
+  public River(String name, double area, double flowDays,
                LoxCallable flowShape) {
-    super(interpreter, name);
+    super(name);
     this.area = area;
     this.flowDays = flowDays;
     this.flowShape = flowShape;
@@ -22,92 +23,294 @@ class River extends WaterNode {
   public double getArea() { return area; }
 
   @Override
-  protected NodeOutputs doCalculateDetailed(int days, double[] rainfall,
-                                            Set<WaterNode> visiting,
-                                            DetailedResult res) {
-    List<double[]> upstreamPerEdge = new ArrayList<>(inflows.size());
-    for (WaterNode in : inflows) {
-      NodeOutputs child = evalChildDetailed(in, days, rainfall, visiting, res);
-      upstreamPerEdge.add(child.perEdgeOut);
-    }
+  protected Stepper stepper(int days, Rainfall rainfall) {
+    // Fixed for the run even if set_property changes the node meanwhile.
+    double area = this.area;
+    double flowDays = this.flowDays;
+    LoxCallable flowShape = this.flowShape;
+    int shapeLen = Math.max(1, (int) Math.ceil(flowDays));
+    return new Stepper() {
+      // Outflow already routed to each of the next shapeLen days, indexed by
+      // day % shapeLen; a slot is cleared once its day has passed.
+      private final double[] due = new double[shapeLen];
+      private double[] kernel;
+      private double backlogSum = 0.0;
+      // First day with nothing left to route from water seen so far.
+      private int quietFrom = 0;
+      private int rainEnd;
+
+      @Override
+      void step(Interpreter interpreter, int day, double incoming) {
+        if (kernel == null) {
+          kernel = kernel(interpreter, flowShape, flowDays, days);
+          rainEnd = rainEnd(rainfall, days);
+        }
+        int today = day % shapeLen;
+        double prevDue = due[today];
 
-    double areaVal = getArea();
-    double[] totalOut = new double[days];
-    double[] backlog = new double[days];
-    double backlogSum = 0.0;
+        if (day < rainfall.days()) {
+          // mm * km^2 * 1,000,000 => L (canonical)
+          incoming += UnitVal.of((rainfall.get(day) * area * 1_000_000), Unit.L).asCanonical();
+        }
 
-    int shapeLen = Math.max(1, (int) Math.ceil(flowDays));
-    
-    for (int day = 0; day < days; day++) {
-      double prevDue = totalOut[day];
-      double incoming = 0.0;
-
-      for (int k = 0; k < upstreamPerEdge.size(); k++) {
-        double[] inOut = upstreamPerEdge.get(k);
-        if (day < inOut.length) {
-          incoming += inOut[day];
+        // Dry days only release what earlier days scheduled.
+        if (incoming != 0.0)
+          quietFrom = Math.max(quietFrom, day + kernel.length);
+        for (int k = 0; incoming != 0.0 && k < kernel.length && day + k < days;
+             k++) {
+          double amount = incoming * kernel[k];
+          due[(day + k) % shapeLen] += amount;
+
+          if (k > 0) {
+            backlogSum += amount;
+          }
         }
+
+        backlogSum -= prevDue;
+        if (backlogSum < 0.0) backlogSum = 0.0;
+        storage = backlogSum;
+        outflow = due[today];
+        due[today] = 0.0;
       }
 
-      if (day < rainfall.length) {
-        // mm * km^2 * 1,000,000 => L (canonical)
-        incoming += UnitVal.of((rainfall[day] * areaVal * 1_000_000), Unit.L).asCanonical();
+      @Override
+      boolean idle(int day) {
+        return kernel != null && day >= quietFrom &&
+            (day >= rainEnd || rainfall.get(day) == 0.0);
       }
 
-      double totalUsed = 0.0;
-      for (int k = 0; k < shapeLen; k++) {
-        int idx = day + k;
-        if (idx >= days) {
-          continue;
-        }
+      @Override
+      boolean drained(int day) {
+        return kernel != null && day >= quietFrom && day >= rainEnd;
+      }
+    };
+  }
 
+  // The day after the last day of the run with any rain in rainfall.
+  private static int rainEnd(Rainfall rainfall, int days) {
+    int end = Math.min(days, rainfall.days());
+    while (end > 0 && rainfall.get(end - 1) == 0.0)
+      end--;
+    return end;
+  }
+
+  // The share of a day's water that leaves k days later, for each k shorter
+  // than both the shape and the run. flow_shape is called once per offset
+  // per run, so it must depend only on its arguments; native shapes are
+  // computed directly.
+  private double[] kernel(Interpreter interpreter, LoxCallable flowShape,
+                          double flowDays, int days) {
+    int shapeLen = Math.max(1, (int) Math.ceil(flowDays));
+    double[] kernel = new double[Math.min(shapeLen, days)];
+    double totalUsed = 0.0;
+    for (int k = 0; k < kernel.length; k++) {
+      double frac;
+      if (flowShape instanceof FlowShapes.FlowShape shape) {
+        frac = shape.fraction((double) k + 1, flowDays);
+      } else {
         Object fracObj = flowShape.call(interpreter, List.of((double) k + 1, flowDays));
-        if (!(fracObj instanceof Double frac)) {
+        if (!(fracObj instanceof Double d)) {
           throw new RuntimeError(
               new Token(TokenType.EOF, name, (Object) null, 0),
               "Property 'flow_shape' must return a number.");
         }
+        frac = d;
+      }
 
-        if (Double.isNaN(frac) || Double.isInfinite(frac)) {
-          frac = 0.0;
-        }
+      if (Double.isNaN(frac) || Double.isInfinite(frac)) {
+        frac = 0.0;
+      }
 
-        if (frac > 1) {
-          frac = 1.0;
-        }
-        
-        totalUsed += frac;
-        if (totalUsed > 1) {
-          frac = 0.0;
-        }
+      if (frac > 1) {
+        frac = 1.0;
+      }
 
-        double amount = incoming * frac;
-        totalOut[idx] += amount;
+      totalUsed += frac;
+      if (totalUsed > 1) {
+        frac = 0.0;
+      }
+      kernel[k] = frac;
+    }
+    return kernel;
+  }
 
-        if (k > 0) {
-          backlogSum += amount;
-        }
+  /**
+   * One stage for a chain of rivers, upstream first, where each is the only
+   * inflow of the next and the last is the only inflow of tail. The rivers'
+   * kernels are convolved into one, and each river's rain into one kernel
+   * per distinct rainfall series, so a day costs one pass over the combined
+   * kernel per input instead of a stepper per river. The stage takes the
+   * first river's incoming and reports tail's results.
+   */
+  static Stepper chain(List<River> rivers, List<Rainfall> rains, Stepper tail,
+                       int days) {
+    int n = rivers.size();
+    int[][] downstream = new int[n][];
+    for (int i = 0; i < n; i++)
+      downstream[i] = new int[] {i + 1 < n ? i + 1 : -1};
+    return new Stage(rivers, downstream, new int[n], rains, tail, days);
+  }
+
+  /**
+   * One stage for all of a node's upstream when it is rivers only, so the
+   * node's incoming is linear in the rain: each river's rain reaches it
+   * through the river's unit response, the sum over its paths down of the
+   * kernels convolved and divided where water splits. Responses of rivers
+   * sharing a rainfall series are summed, so a day costs one pass over one
+   * kernel per distinct series however many rivers there are. Rivers are
+   * upstream first; downstream holds each one's outflows as indices into
+   * rivers, -1 for tail, and branches how many ways each splits.
+   */
+  static Stepper superposed(List<River> rivers, int[][] downstream,
+                            int[] branches, List<Rainfall> rains,
+                            Stepper tail, int days) {
+    return new Stage(rivers, downstream, branches, rains, tail, days);
+  }
+
+  // Routes the first river's incoming and every river's rain through
+  // precomputed responses into tail.
+  private static final class Stage extends Stepper {
+    private final List<River> rivers;
+    private final int[][] downstream;
+    private final int[] branches;
+    private final List<Rainfall> rains;
+    private final Stepper tail;
+    private final int days;
+    private final double[] areas;
+    private final double[] flowDays;
+    private final LoxCallable[] flowShapes;
+    // Response to the first river's incoming; rain responses per series.
+    private double[] through;
+    private Rainfall[] rainOf;
+    private double[][] rainKernels;
+    private double[] due;
+    private int quietFrom = 0;
+    private int rainEnd = 0;
+
+    Stage(List<River> rivers, int[][] downstream, int[] branches,
+          List<Rainfall> rains, Stepper tail, int days) {
+      this.rivers = rivers;
+      this.downstream = downstream;
+      this.branches = branches;
+      this.rains = rains;
+      this.tail = tail;
+      this.days = days;
+      int n = rivers.size();
+      areas = new double[n];
+      flowDays = new double[n];
+      flowShapes = new LoxCallable[n];
+      for (int i = 0; i < n; i++) {
+        areas[i] = rivers.get(i).area;
+        flowDays[i] = rivers.get(i).flowDays;
+        flowShapes[i] = rivers.get(i).flowShape;
       }
+    }
+
+    @Override
+    void step(Interpreter interpreter, int day, double incoming) {
+      if (due == null)
+        combine(interpreter);
+      add(incoming, through, day);
+      for (int g = 0; g < rainOf.length; g++) {
+        if (day < rainOf[g].days())
+          add(rainOf[g].get(day), rainKernels[g], day);
+      }
+      int today = day % due.length;
+      double delivered = due[today];
+      due[today] = 0.0;
+      tail.step(interpreter, day, delivered);
+      outflow = tail.outflow;
+      storage = tail.storage;
+    }
 
-      backlogSum -= prevDue;
-      if (backlogSum < 0.0) backlogSum = 0.0;
-      backlog[day] = backlogSum;
+    @Override
+    boolean drained(int day) {
+      return due != null && day >= quietFrom && day >= rainEnd &&
+          tail.drained(day);
     }
 
+    private void add(double amount, double[] kernel, int day) {
+      if (amount == 0.0)
+        return;
+      quietFrom = Math.max(quietFrom, day + kernel.length);
+      for (int k = 0; k < kernel.length && day + k < days; k++)
+        due[(day + k) % due.length] += amount * kernel[k];
+    }
 
+    // Works up from tail, so each river's downstream responses are known
+    // before its own.
+    private void combine(Interpreter interpreter) {
+      int n = rivers.size();
+      double[][] response = new double[n][];
+      Map<Rainfall, double[]> byRain = new IdentityHashMap<>();
+      int length = 1;
+      for (int i = n - 1; i >= 0; i--) {
+        double[] below = new double[0];
+        for (int d : downstream[i])
+          below = sum(below, d < 0 ? new double[] {1.0} : response[d]);
+        double[] r = convolve(rivers.get(i).kernel(interpreter, flowShapes[i],
+                                                   flowDays[i], days),
+                              below, days);
+        if (branches[i] > 1) {
+          for (int k = 0; k < r.length; k++)
+            r[k] /= branches[i];
+        }
+        response[i] = r;
+        length = Math.max(length, r.length);
 
-    // Split evenly across downstream outflows for propagation.
-    int branches = Math.max(1, downstreamCount());
-    double[] perEdgeOut;
-    if (branches > 1) {
-      perEdgeOut = new double[days];
-      for (int i = 0; i < days; i++)
-        perEdgeOut[i] = totalOut[i] / branches;
-    } else {
-      perEdgeOut = totalOut.clone();
+        // mm * km^2 * 1,000,000 => L (canonical)
+        double litres = areas[i] * 1_000_000;
+        double[] rain = byRain.get(rains.get(i));
+        rain = rain == null
+                   ? new double[r.length]
+                   : Arrays.copyOf(rain, Math.max(rain.length, r.length));
+        for (int k = 0; k < r.length; k++)
+          rain[k] += r[k] * litres;
+        byRain.put(rains.get(i), rain);
+      }
+      through = response[0];
+      rainOf = byRain.keySet().toArray(new Rainfall[0]);
+      rainKernels = new double[rainOf.length][];
+      for (int g = 0; g < rainOf.length; g++) {
+        rainKernels[g] = byRain.get(rainOf[g]);
+        rainEnd = Math.max(rainEnd, rainEnd(rainOf[g], days));
+      }
+      due = new double[length];
     }
+  }
+
+  private static double[] sum(double[] a, double[] b) {
+    double[] out = Arrays.copyOf(a, Math.max(a.length, b.length));
+    for (int k = 0; k < b.length; k++)
+      out[k] += b[k];
+    return out;
+  }
 
-    return new NodeOutputs(totalOut, perEdgeOut, backlog);
+  // a convolved with b, cut off after length terms.
+  private static double[] convolve(double[] a, double[] b, int length) {
+    double[] out = new double[Math.min(a.length + b.length - 1, length)];
+    for (int i = 0; i < a.length; i++) {
+      for (int j = 0; j < b.length && i + j < out.length; j++)
+        out[i + j] += a[i] * b[j];
+    }
+    return out;
+  }
+
+  @Override
+  protected void setProperty(Token where, String key, Object value) {
+    switch (key) {
+    case "area":
+      area = number(where, key, value);
+      break;
+    case "flow_days":
+      flowDays = number(where, key, value);
+      break;
+    case "flow_shape":
+      flowShape = Interpreter.nodeFunction(where, key, value, 2);
+      break;
+    default:
+      super.setProperty(where, key, value);
+    }
   }
 
   @Override
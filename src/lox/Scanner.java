@@ -2,57 +2,53 @@ package lox;
 
 import static lox.TokenType.*;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * Scans UTF-8 source bytes, usually a memory-mapped file, into a TokenStream.
+ * Lexemes stay in the buffer as offsets; only identifiers, strings and numbers
+ * are copied out, once per distinct spelling.
+ */
 class Scanner {
-  private final String source;
-  private final List<Token> tokens = new ArrayList<>();
+  private final ByteBuffer source;
+  private final int length;
+  private final Lox lox;
+  private final TokenStream tokens;
   private int start = 0;
   private int current = 0;
   private int line = 1;
 
-  private static final Map<String, TokenType> keywords;
-
-  static {
-    keywords = new HashMap<>();
-    keywords.put("and", AND);
-    keywords.put("class", CLASS);
-    keywords.put("else", ELSE);
-    keywords.put("false", FALSE);
-    keywords.put("for", FOR);
-    keywords.put("fun", FUN);
-    keywords.put("if", IF);
-    keywords.put("nil", NIL);
-    keywords.put("or", OR);
-    keywords.put("print", PRINT);
-    keywords.put("return", RETURN);
-    keywords.put("super", SUPER);
-    keywords.put("this", THIS);
-    keywords.put("true", TRUE);
-    keywords.put("var", VAR);
-    keywords.put("while", WHILE);
-    keywords.put("river", RIVER);
-    keywords.put("dam", DAM);
-  }
+  private static final PerfectHash<TokenType> keywords = new PerfectHash<>(
+      new String[] {"and", "class", "else", "false", "for", "fun", "if", "nil",
+                    "or", "print", "return", "super", "this", "true", "var",
+                    "while", "river", "dam", "parallel"},
+      new TokenType[] {AND, CLASS, ELSE, FALSE, FOR, FUN, IF, NIL, OR, PRINT,
+                       RETURN, SUPER, THIS, TRUE, VAR, WHILE, RIVER, DAM,
+                       PARALLEL},
+      false);
 
-  Scanner(String source) { this.source = source; }
+  Scanner(ByteBuffer source, Lox lox) {
+    this.source = source;
+    this.length = source.limit();
+    this.lox = lox;
+    // Real scripts average well over four bytes per token.
+    this.tokens = new TokenStream(length / 4);
+  }
 
-  List<Token> scanTokens() {
+  TokenStream scanTokens() {
     while (!isAtEnd()) {
       // We are at the beginning of the next lexeme.
       start = current;
       scanToken();
     }
 
-    tokens.add(new Token(EOF, "", null, line));
+    tokens.add(EOF, current, 0, line, null);
     return tokens;
   }
 
   private void scanToken() {
-    char c = advance();
+    byte c = advance();
     switch (c) {
     case '(':
       addToken(LEFT_PAREN);
@@ -145,7 +141,10 @@ class Scanner {
       } else if (isAlpha(c)) {
         identifier();
       } else {
-        Lox.error(line, "Unexpected character.");
+        // Report a multi-byte character once, not once per byte.
+        while (isContinuation(peek()))
+          advance();
+        lox.error(line, "Unexpected character.");
       }
       break;
     }
@@ -155,38 +154,54 @@ class Scanner {
     while (isAlphaNumeric(peek()))
       advance();
 
-    String text = source.substring(start, current);
-    TokenType type = keywords.get(text);
-    if (type == null)
-      type = IDENTIFIER;
-    addToken(type);
+    TokenType type = keywords.get(source, start, current - start);
+    if (type == null) {
+      tokens.addInterned(IDENTIFIER, source, start, current - start, line,
+                         null);
+    } else {
+      tokens.add(type, start, current - start, line, null);
+    }
   }
 
   private void number() {
     while (isDigit(peek()))
       advance();
+    boolean integer = true;
     if (peek() == '.' && isDigit(peekNext())) {
+      integer = false;
       advance();
       while (isDigit(peek()))
         advance();
     }
-    double numeric = Double.parseDouble(source.substring(start, current));
+    double numeric = parseNumber(start, current, integer);
+    int end = current;
     // Unit suffix: one or more letters (e.g., cm, sqm, mL). Case-insensitive.
     int unitStart = current;
     while (isAlpha(peek()))
       advance();
     if (unitStart != current) {
-      String unit = source.substring(unitStart, current);
-      try {
-        UnitVal uv = UnitVal.parse(numeric, unit);
-        addToken(NUMBER, uv.asCanonical());
-      } catch (IllegalArgumentException ex) {
-        Lox.error(line, ex.getMessage());
-        addToken(NUMBER, numeric); // fallback
+      UnitVal.Unit unit =
+          UnitVal.Unit.parse(source, unitStart, current - unitStart);
+      if (unit != null) {
+        numeric = unit.toCanonical(numeric);
+      } else {
+        lox.error(line, "Unknown unit: " + text(unitStart, current));
       }
-    } else {
-      addToken(NUMBER, numeric);
     }
+    tokens.addInterned(NUMBER, source, start, current - start, line,
+                       numeric);
+  }
+
+  // Plain integers that fit in a double exactly are accumulated directly;
+  // anything else goes through Double.parseDouble for correct rounding.
+  private double parseNumber(int from, int to, boolean integer) {
+    if (integer && to - from <= 15) {
+      long value = 0;
+      for (int i = from; i < to; i++)
+        value = value * 10 + (source.get(i) - '0');
+      return value;
+    }
+    return Double.parseDouble(text(from, to));
   }
 
   private void string() {
@@ -197,7 +212,7 @@ class Scanner {
     }
 
     if (isAtEnd()) {
-      Lox.error(line, "Unterminated string.");
+      lox.error(line, "Unterminated string.");
       return;
     }
 
@@ -205,48 +220,53 @@ class Scanner {
     advance();
 
     // Trim the surrounding quotes.
-    String value = source.substring(start + 1, current - 1);
-    addToken(STRING, value);
+    String value = text(start + 1, current - 1);
+    tokens.addInterned(STRING, source, start, current - start, line, value);
+  }
+
+  private String text(int from, int to) {
+    byte[] bytes = new byte[to - from];
+    source.get(from, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
   }
 
   private boolean match(char expected) {
     if (isAtEnd())
       return false;
-    if (source.charAt(current) != expected)
+    if (source.get(current) != expected)
       return false;
 
     current++;
     return true;
   }
 
-  private char peek() {
+  private byte peek() {
     if (isAtEnd())
       return '\0';
-    return source.charAt(current);
+    return source.get(current);
   }
 
-  private char peekNext() {
-    if (current + 1 >= source.length())
+  private byte peekNext() {
+    if (current + 1 >= length)
       return '\0';
-    return source.charAt(current + 1);
+    return source.get(current + 1);
   }
 
-  private boolean isAlpha(char c) {
+  private boolean isAlpha(byte c) {
     return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
   }
 
-  private boolean isAlphaNumeric(char c) { return isAlpha(c) || isDigit(c); }
+  private boolean isAlphaNumeric(byte c) { return isAlpha(c) || isDigit(c); }
 
-  private boolean isDigit(char c) { return c >= '0' && c <= '9'; }
+  private boolean isDigit(byte c) { return c >= '0' && c <= '9'; }
 
-  private boolean isAtEnd() { return current >= source.length(); }
+  private boolean isContinuation(byte c) { return (c & 0xC0) == 0x80; }
 
-  private char advance() { return source.charAt(current++); }
+  private boolean isAtEnd() { return current >= length; }
 
-  private void addToken(TokenType type) { addToken(type, null); }
+  private byte advance() { return source.get(current++); }
 
-  private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+  private void addToken(TokenType type) {
+    tokens.add(type, start, current - start, line, null);
   }
 }
@@ -0,0 +1,287 @@
+package lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-lived daemon that runs scripts for lightweight clients, so jobs skip
+ * JVM startup and run on already-compiled code. Every job gets its own Lox
+ * session on a virtual thread. Parsed and resolved programs are cached by the
+ * SHA-256 of their source.
+ *
+ * The address is a TCP port on the loopback interface or a Unix socket path.
+ * A client sends one request, either "FILE <path>\n" or "SOURCE <bytes>\n"
+ * followed by that many bytes of source. The server answers with frames of
+ * [channel byte][int length][payload]: 'O' for stdout, 'E' for stderr and a
+ * final 'X' whose payload is the int exit code. A job that fails outside the
+ * interpreter's own error handling, such as by overflowing the stack, is
+ * reported on 'E' and exits with 70 like any runtime error.
+ */
+final class Server {
+  private static final byte OUT = 'O';
+  private static final byte ERR = 'E';
+  private static final byte EXIT = 'X';
+  private static final int CACHE_SIZE = 64;
+
+  // Least recently used programs are evicted first.
+  private final Map<String, Lox.Program> cache =
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Lox.Program> e) {
+          return size() > CACHE_SIZE;
+        }
+      };
+
+  private Server() {}
+
+  static void serve(String address) throws IOException {
+    ServerSocketChannel server = bind(address);
+    ExecutorService jobs = Executors.newVirtualThreadPerTaskExecutor();
+    Server daemon = new Server();
+    System.err.println("Listening on " + address);
+    while (true) {
+      SocketChannel client = server.accept();
+      jobs.execute(() -> daemon.handle(client));
+    }
+  }
+
+  /** Sends script ("-" for stdin) to a server and returns its exit code. */
+  static int submit(String address, String script) throws IOException {
+    try (SocketChannel channel = connect(address)) {
+      OutputStream request = Channels.newOutputStream(channel);
+      if (script.equals("-")) {
+        byte[] source = System.in.readAllBytes();
+        request.write(("SOURCE " + source.length + "\n")
+                          .getBytes(StandardCharsets.UTF_8));
+        request.write(source);
+      } else {
+        request.write(("FILE " + Path.of(script).toAbsolutePath() + "\n")
+                          .getBytes(StandardCharsets.UTF_8));
+      }
+      request.flush();
+
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(Channels.newInputStream(channel)));
+      try {
+        while (true) {
+          byte kind = in.readByte();
+          int length = in.readInt();
+          if (kind == EXIT)
+            return in.readInt();
+          PrintStream target = kind == ERR ? System.err : System.out;
+          target.write(in.readNBytes(length));
+          target.flush();
+        }
+      } catch (EOFException error) {
+        System.err.println("Server closed the connection without an exit " +
+                           "code.");
+        return 74;
+      }
+    }
+  }
+
+  private void handle(SocketChannel channel) {
+    try (channel) {
+      DataInputStream in = new DataInputStream(
+          new BufferedInputStream(Channels.newInputStream(channel)));
+      DataOutputStream frames = new DataOutputStream(
+          new BufferedOutputStream(Channels.newOutputStream(channel)));
+      PrintStream out = new PrintStream(new FrameStream(frames, OUT), true,
+                                        StandardCharsets.UTF_8);
+      PrintStream err = new PrintStream(new FrameStream(frames, ERR), true,
+                                        StandardCharsets.UTF_8);
+
+      int code = run(in, out, err);
+      out.flush();
+      err.flush();
+      synchronized (frames) {
+        frames.writeByte(EXIT);
+        frames.writeInt(4);
+        frames.writeInt(code);
+        frames.flush();
+      }
+    } catch (IOException error) {
+      // The client went away; nothing left to report to.
+    }
+  }
+
+  private int run(DataInputStream in, PrintStream out, PrintStream err)
+      throws IOException {
+    String header = readLine(in);
+    byte[] source;
+    if (header.startsWith("FILE ")) {
+      Path path;
+      try {
+        path = Path.of(header.substring(5));
+      } catch (InvalidPathException error) {
+        err.println("Bad request: " + header);
+        return 64;
+      }
+      try {
+        source = Files.readAllBytes(path);
+      } catch (IOException error) {
+        err.println("Could not read '" + path + "': " + error.getMessage());
+        return 66;
+      }
+    } else if (header.startsWith("SOURCE ")) {
+      int length;
+      try {
+        length = Integer.parseInt(header.substring(7).trim());
+      } catch (NumberFormatException error) {
+        length = -1;
+      }
+      if (length < 0) {
+        err.println("Bad request: " + header);
+        return 64;
+      }
+      source = in.readNBytes(length);
+    } else {
+      err.println("Bad request: " + header);
+      return 64;
+    }
+
+    Lox lox = new Lox(out, err);
+    try {
+      Lox.Program program = program(lox, source);
+      if (program != null)
+        lox.execute(program);
+    } catch (StackOverflowError error) {
+      // One job's runaway recursion must not take the connection with it.
+      err.println("Stack overflow.");
+      return 70;
+    } catch (RuntimeException error) {
+      err.println("Internal error: " + error);
+      return 70;
+    }
+
+    if (lox.hadError)
+      return 65;
+    if (lox.hadRuntimeError)
+      return 70;
+    return 0;
+  }
+
+  // Cached program for source, compiling (and reporting errors) on a miss.
+  private Lox.Program program(Lox lox, byte[] source) {
+    String key = hash(source);
+    synchronized (cache) {
+      Lox.Program cached = cache.get(key);
+      if (cached != null)
+        return cached;
+    }
+
+    Lox.Program program = lox.compile(ByteBuffer.wrap(source));
+    if (program != null) {
+      synchronized (cache) {
+        cache.put(key, program);
+      }
+    }
+    return program;
+  }
+
+  private static String hash(byte[] source) {
+    return HexFormat.of().formatHex(
+        Snapshot.sha256(ByteBuffer.wrap(source)));
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    int b;
+    while ((b = in.read()) != -1 && b != '\n')
+      line.write(b);
+    return line.toString(StandardCharsets.UTF_8);
+  }
+
+  private static boolean isPort(String address) {
+    return address.chars().allMatch(Character::isDigit);
+  }
+
+  private static ServerSocketChannel bind(String address) throws IOException {
+    if (isPort(address)) {
+      ServerSocketChannel server = ServerSocketChannel.open();
+      server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                        Integer.parseInt(address)));
+      return server;
+    }
+
+    Path path = Path.of(address);
+    ServerSocketChannel server =
+        ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+    server.bind(UnixDomainSocketAddress.of(path));
+    Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+      try {
+        Files.deleteIfExists(path);
+      } catch (IOException error) {
+        // Best effort; a stale socket only blocks the next bind.
+      }
+    }));
+    return server;
+  }
+
+  private static SocketChannel connect(String address) throws IOException {
+    if (isPort(address)) {
+      return SocketChannel.open(new InetSocketAddress(
+          InetAddress.getLoopbackAddress(), Integer.parseInt(address)));
+    }
+    return SocketChannel.open(UnixDomainSocketAddress.of(address));
+  }
+
+  // Wraps every write in a frame for one output channel.
+  private static final class FrameStream extends OutputStream {
+    private final DataOutputStream frames;
+    private final byte kind;
+
+    FrameStream(DataOutputStream frames, byte kind) {
+      this.frames = frames;
+      this.kind = kind;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte)b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      if (len == 0)
+        return;
+      synchronized (frames) {
+        frames.writeByte(kind);
+        frames.writeInt(len);
+        frames.write(b, off, len);
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      synchronized (frames) {
+        frames.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,453 @@
+package lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One day-by-day run over the network upstream of (and including) one or
+ * more root nodes. Nodes are ordered so that each comes after all of its inflows, and
+ * every day steps them in that order, handing each node what its upstream
+ * edges deliver that day. Only per-node state is kept between days, so the
+ * caller decides how much of each day's results to hold on to.
+ *
+ * Given an enabled SimulationCache, nodes whose state is cached replay their
+ * series instead of stepping, and the series of the rest are stored once the
+ * run reaches its last day, upstream nodes first while the budget allows.
+ */
+final class Simulation {
+  // Upstream nodes first; the root is last.
+  final List<WaterNode> nodes = new ArrayList<>();
+  final int days;
+  private final WaterNode.Stepper[] steppers;
+  private final int[][] upstream;
+  private final int[] branches;
+  private final Rainfall[] rains;
+  // Per node, null when nothing observes it.
+  private final Observer[][] observers;
+  private final SimulationCache cache;
+  // Per node, null when the node's series is not being recorded for cache.
+  private final SimulationCache.Key[] keys;
+  private final double[][][] recorded;
+  private int day = 0;
+  // First day on which every node had drained, or -1 while water moves.
+  private int drained = -1;
+
+  /** Sees a node's results each day as the simulation steps. */
+  interface Observer {
+    void observe(int day, double outflow, double storage);
+  }
+
+  Simulation(WaterNode root, RainfallSource rainfall, int days,
+             SimulationCache cache) {
+    this(List.of(root), rainfall, days, cache);
+  }
+
+  // The day count argument of a simulation native.
+  static int days(Object value, Token where) {
+    if (!(value instanceof Double d) || d < 0 || d != Math.floor(d) ||
+        d > Integer.MAX_VALUE) {
+      throw new RuntimeError(where,
+                             "Day count must be a non-negative whole number.");
+    }
+    return d.intValue();
+  }
+
+  // Every node upstream of any root is simulated once, however many roots
+  // share it. The cache may be null.
+  Simulation(List<WaterNode> roots, RainfallSource rainfall, int days,
+             SimulationCache cache) {
+    this.days = days;
+    this.cache = cache != null && cache.enabled() ? cache : null;
+    Map<WaterNode, Integer> index = new HashMap<>();
+    for (WaterNode root : roots) {
+      if (!index.containsKey(root))
+        order(root, index);
+    }
+
+    int n = nodes.size();
+    steppers = new WaterNode.Stepper[n];
+    upstream = new int[n][];
+    branches = new int[n];
+    rains = new Rainfall[n];
+    observers = new Observer[n][];
+    keys = new SimulationCache.Key[n];
+    recorded = new double[n][][];
+    long[] state = new long[n];
+    Map<Rainfall, Long> rainHashes = new IdentityHashMap<>();
+    long room = this.cache == null ? 0 : this.cache.budget();
+    RainfallSource source = rainfall.forNetwork(nodes);
+    for (int i = 0; i < n; i++) {
+      WaterNode node = nodes.get(i);
+      Rainfall rain = source.forNode(node);
+      rains[i] = rain;
+      upstream[i] = new int[node.inflows.size()];
+      for (int k = 0; k < upstream[i].length; k++)
+        upstream[i][k] = index.get(node.inflows.get(k));
+      branches[i] = Math.max(1, node.downstreamCount());
+
+      if (this.cache != null) {
+        // Everything the node's series depends on: its own version and rain,
+        // and the state of each inflow and how many ways it splits.
+        long h = mix(node.version(),
+                     rainHashes.computeIfAbsent(rain, r -> hash(r, days)));
+        for (int j : upstream[i])
+          h = mix(mix(h, state[j]), branches[j]);
+        state[i] = h;
+        SimulationCache.Key key = new SimulationCache.Key(node, h, days);
+        double[][] hit = this.cache.get(key);
+        if (hit != null) {
+          steppers[i] = new Replay(hit[0], hit[1]);
+          continue;
+        }
+        if (room >= SimulationCache.size(days)) {
+          room -= SimulationCache.size(days);
+          keys[i] = key;
+          recorded[i] = new double[2][days];
+        }
+      }
+      steppers[i] = node.stepper(days, rain);
+    }
+  }
+
+  // The rain a node sees over the run, past the end of the series included.
+  private static long hash(Rainfall rain, int days) {
+    int n = Math.min(days, rain.days());
+    long h = n;
+    for (int day = 0; day < n; day++)
+      h = mix(h, Double.doubleToLongBits(rain.get(day)));
+    return h;
+  }
+
+  // Combines h with v, splitmix64 style.
+  private static long mix(long h, long v) {
+    long z = h * 0x9e3779b97f4a7c15L + v;
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  // A node whose series came from the cache.
+  private static final class Replay extends WaterNode.Stepper {
+    private final double[] outflows;
+    private final double[] storages;
+    // First day from which the series has no outflow and storage stays put.
+    private final int quietFrom;
+
+    Replay(double[] outflows, double[] storages) {
+      this.outflows = outflows;
+      this.storages = storages;
+      int last = outflows.length - 1;
+      while (last > 0 && outflows[last] == 0.0 &&
+             storages[last] == storages[last - 1])
+        last--;
+      quietFrom = last == 0 && outflows[0] == 0.0 && storages[0] == 0.0
+                      ? 0
+                      : last + 1;
+    }
+
+    @Override
+    void step(Interpreter interpreter, int day, double incoming) {
+      outflow = outflows[day];
+      storage = storages[day];
+    }
+
+    @Override
+    boolean drained(int day) {
+      return day >= quietFrom;
+    }
+  }
+
+  // Appends the nodes upstream of root not placed yet in post order, noting
+  // each node's position. Iterative so long chains of loaded nodes cannot
+  // overflow the stack.
+  private void order(WaterNode root, Map<WaterNode, Integer> index) {
+    Map<WaterNode, Integer> nextChild = new HashMap<>();
+    Deque<WaterNode> stack = new ArrayDeque<>();
+    stack.push(root);
+    nextChild.put(root, 0);
+    while (!stack.isEmpty()) {
+      WaterNode node = stack.peek();
+      int k = nextChild.get(node);
+      if (k < node.inflows.size()) {
+        nextChild.put(node, k + 1);
+        WaterNode in = node.inflows.get(k);
+        if (index.containsKey(in))
+          continue;
+        if (nextChild.containsKey(in)) {
+          throw new RuntimeError(
+              new Token(TokenType.EOF, in.name, (Object)null, 0),
+              "Cycle detected at node '" + in.name + "'.");
+        }
+        stack.push(in);
+        nextChild.put(in, 0);
+      } else {
+        stack.pop();
+        nextChild.remove(node);
+        index.put(node, nodes.size());
+        nodes.add(node);
+      }
+    }
+  }
+
+  int day() { return day; }
+
+  // Position of the named node, or -1 if it is not part of this run.
+  int indexOf(String name) {
+    for (int i = 0; i < nodes.size(); i++) {
+      if (nodes.get(i).name.equals(name))
+        return i;
+    }
+    return -1;
+  }
+
+  void observe(int node, Observer observer) {
+    if (steppers[node] == null)
+      throw new IllegalStateException("Node merged into a chain.");
+    Observer[] current = observers[node];
+    Observer[] next = current == null
+                          ? new Observer[1]
+                          : Arrays.copyOf(current, current.length + 1);
+    next[next.length - 1] = observer;
+    observers[node] = next;
+  }
+
+  /**
+   * Runs each chain of rivers that feeds a river one to one as a single
+   * stage (see River.chain), for callers that only read some nodes. Nodes
+   * observed so far, replayed from the cache or named in keep stay separate;
+   * the results of merged nodes are not available for the rest of the run.
+   * Call before the first step.
+   */
+  void collapseChains(int... keep) {
+    if (day > 0)
+      throw new IllegalStateException("Simulation already started.");
+    boolean[] kept = new boolean[nodes.size()];
+    for (int i : keep)
+      kept[i] = true;
+    for (int tail = nodes.size() - 1; tail >= 0; tail--) {
+      if (steppers[tail] == null || !(nodes.get(tail) instanceof River) ||
+          steppers[tail] instanceof Replay)
+        continue;
+      Deque<Integer> chain = new ArrayDeque<>();
+      int i = tail;
+      while (upstream[i].length == 1 && mergeable(upstream[i][0], kept)) {
+        i = upstream[i][0];
+        chain.addFirst(i);
+      }
+      if (chain.isEmpty())
+        continue;
+
+      List<River> rivers = new ArrayList<>();
+      List<Rainfall> chainRains = new ArrayList<>();
+      for (int c : chain) {
+        rivers.add((River)nodes.get(c));
+        chainRains.add(rains[c]);
+        steppers[c] = null;
+        recorded[c] = null;
+      }
+      steppers[tail] = River.chain(rivers, chainRains, steppers[tail], days);
+      upstream[tail] = upstream[chain.getFirst()];
+    }
+  }
+
+  /**
+   * Replaces everything upstream of a node with a single stage (see
+   * River.superposed) wherever that upstream is rivers only and drains
+   * nowhere else in the run, so the cost of a day no longer grows with the
+   * number of rivers. The same nodes stay separate as for collapseChains,
+   * which can still merge chains below dams afterwards. Call before the
+   * first step.
+   */
+  void superpose(int... keep) {
+    if (day > 0)
+      throw new IllegalStateException("Simulation already started.");
+    int n = nodes.size();
+    boolean[] kept = new boolean[n];
+    for (int i : keep)
+      kept[i] = true;
+    Map<WaterNode, Integer> position = new HashMap<>();
+    for (int i = 0; i < n; i++)
+      position.put(nodes.get(i), i);
+
+    for (int outlet = n - 1; outlet >= 0; outlet--) {
+      if (steppers[outlet] == null || steppers[outlet] instanceof Replay ||
+          upstream[outlet].length == 0)
+        continue;
+      boolean[] member = new boolean[n];
+      if (!closure(outlet, member, kept, position))
+        continue;
+
+      List<River> rivers = new ArrayList<>();
+      List<Rainfall> closureRains = new ArrayList<>();
+      int[] local = new int[n];
+      for (int i = 0; i < n; i++) {
+        if (member[i]) {
+          local[i] = rivers.size();
+          rivers.add((River)nodes.get(i));
+          closureRains.add(rains[i]);
+        }
+      }
+      int[][] downstream = new int[rivers.size()][];
+      int[] splits = new int[rivers.size()];
+      for (int i = 0; i < n; i++) {
+        if (!member[i])
+          continue;
+        List<Integer> down = new ArrayList<>();
+        for (WaterNode next : nodes.get(i).outflows) {
+          Integer d = position.get(next);
+          if (d != null)
+            down.add(d == outlet ? -1 : local[d]);
+        }
+        downstream[local[i]] = down.stream().mapToInt(d -> d).toArray();
+        splits[local[i]] = branches[i];
+        steppers[i] = null;
+        recorded[i] = null;
+      }
+      steppers[outlet] = River.superposed(rivers, downstream, splits,
+                                          closureRains, steppers[outlet], days);
+      upstream[outlet] = new int[0];
+    }
+  }
+
+  // Marks the nodes upstream of outlet in member; false if any of them is
+  // not a free river or also drains into a node outside them.
+  private boolean closure(int outlet, boolean[] member, boolean[] kept,
+                          Map<WaterNode, Integer> position) {
+    Deque<Integer> stack = new ArrayDeque<>();
+    for (int j : upstream[outlet])
+      stack.push(j);
+    while (!stack.isEmpty()) {
+      int j = stack.pop();
+      if (member[j])
+        continue;
+      if (!(nodes.get(j) instanceof River) || !free(j, kept))
+        return false;
+      member[j] = true;
+      for (int k : upstream[j])
+        stack.push(k);
+    }
+    for (int j = 0; j < member.length; j++) {
+      if (!member[j])
+        continue;
+      for (WaterNode next : nodes.get(j).outflows) {
+        Integer d = position.get(next);
+        if (d != null && d != outlet && !member[d])
+          return false;
+      }
+    }
+    return true;
+  }
+
+  // Whether node i may be folded into a stage: nobody reads it directly.
+  private boolean free(int i, boolean[] kept) {
+    return !kept[i] && observers[i] == null && steppers[i] != null &&
+        !(steppers[i] instanceof Replay);
+  }
+
+  private boolean mergeable(int i, boolean[] kept) {
+    WaterNode node = nodes.get(i);
+    return node instanceof River && node.downstreamCount() == 1 &&
+        free(i, kept);
+  }
+
+  boolean isDone() { return day >= days; }
+
+  /**
+   * The number of days stepped before the whole network drained: nothing
+   * left to route, every dam empty and no rain to come. From then on every
+   * outflow is zero and every storage stays put, so steps cost no node work
+   * and skipToEnd() can fill the rest of the run at once. -1 until then.
+   */
+  int drainedAt() { return drained; }
+
+  // Simulates the next day for every node.
+  void step(Interpreter interpreter) {
+    if (drained >= 0) {
+      quietDays(day + 1);
+      return;
+    }
+    for (int i = 0; i < steppers.length; i++) {
+      if (steppers[i] == null)
+        continue;
+      double incoming = 0.0;
+      for (int j : upstream[i]) {
+        double out = steppers[j].outflow;
+        incoming += branches[j] > 1 ? out / branches[j] : out;
+      }
+      WaterNode.Stepper stepper = steppers[i];
+      if (incoming == 0.0 && stepper.idle(day))
+        stepper.outflow = 0.0;
+      else
+        stepper.step(interpreter, day, incoming);
+      if (recorded[i] != null) {
+        recorded[i][0][day] = stepper.outflow;
+        recorded[i][1][day] = stepper.storage;
+      }
+      if (observers[i] != null) {
+        for (Observer observer : observers[i])
+          observer.observe(day, stepper.outflow, stepper.storage);
+      }
+    }
+    day++;
+    if (day < days && isDrained())
+      drained = day;
+    if (day == days)
+      store();
+  }
+
+  // Steps every remaining day of a drained run at once.
+  void skipToEnd() {
+    if (drained < 0)
+      throw new IllegalStateException("Simulation has not drained.");
+    quietDays(days);
+  }
+
+  private boolean isDrained() {
+    for (WaterNode.Stepper stepper : steppers) {
+      if (stepper != null && !stepper.drained(day))
+        return false;
+    }
+    return true;
+  }
+
+  // Advances a drained run to end: outflows are zero and storage stays put.
+  private void quietDays(int end) {
+    for (int i = 0; i < steppers.length; i++) {
+      WaterNode.Stepper stepper = steppers[i];
+      if (stepper == null)
+        continue;
+      stepper.outflow = 0.0;
+      if (recorded[i] != null)
+        Arrays.fill(recorded[i][1], day, end, stepper.storage);
+      if (observers[i] != null) {
+        for (int d = day; d < end; d++) {
+          for (Observer observer : observers[i])
+            observer.observe(d, 0.0, stepper.storage);
+        }
+      }
+    }
+    day = end;
+    if (day == days)
+      store();
+  }
+
+  private void store() {
+    if (cache == null)
+      return;
+    for (int i = 0; i < recorded.length; i++) {
+      if (recorded[i] != null)
+        cache.put(keys[i], recorded[i][0], recorded[i][1]);
+    }
+  }
+
+  // Results of the last stepped day for the node at position i.
+  double outflow(int i) { return steppers[i].outflow; }
+
+  double storage(int i) { return steppers[i].storage; }
+}
@@ -0,0 +1,139 @@
+package lox;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Daily series of nodes from earlier runs in a session, reused when the same
+ * part of a network is simulated again with the same rainfall, as what-if
+ * sessions do when they swap one dam and recalculate. A node's entry is keyed
+ * on its state: its version, the rain it reads and the state of every node
+ * upstream of it, hashed in run order. Editing a node or an edge gives the
+ * node a new version, so the node and everything downstream of it miss while
+ * upstream nodes still hit. Edits through the graph natives drop the entries
+ * of the edited node's downstream closure straight away; others that nobody
+ * can ask for again age out.
+ *
+ * Off until a script calls simulation_cache(megabytes), since flow_shape and
+ * out_flow are only assumed to depend on their arguments here. Least
+ * recently used series are evicted once the budget is exceeded, and
+ * simulation_cache(0) turns the cache off and drops everything.
+ */
+final class SimulationCache {
+  private final Map<Key, double[][]> entries =
+      new LinkedHashMap<>(16, 0.75f, true);
+  private long budget = 0;
+  private long used = 0;
+
+  static final class Key {
+    final WaterNode node;
+    final long state;
+    final int days;
+
+    Key(WaterNode node, long state, int days) {
+      this.node = node;
+      this.state = state;
+      this.days = days;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof Key k && k.node == node && k.state == state &&
+          k.days == days;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(node), state, days);
+    }
+  }
+
+  static void define(Environment globals) {
+    globals.define("simulation_cache", new LoxCallable() {
+      private final Token where =
+          new Token(TokenType.IDENTIFIER, "simulation_cache", null, 0);
+
+      @Override
+      public int arity() {
+        return 1;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        if (!(arguments.get(0) instanceof Double megabytes) || megabytes < 0)
+          throw new RuntimeError(where, "Cache size must be a number of MB.");
+        interpreter.lox.simulationCache.resize(
+            (long)(megabytes * 1024 * 1024));
+        return null;
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+  }
+
+  // A node's outflow and storage series cost 16 bytes a day.
+  static long size(int days) { return 16L * days; }
+
+  synchronized boolean enabled() { return budget > 0; }
+
+  synchronized long budget() { return budget; }
+
+  synchronized void resize(long bytes) {
+    budget = bytes;
+    evict();
+  }
+
+  // The {outflow, storage} series stored under key, or null.
+  synchronized double[][] get(Key key) { return entries.get(key); }
+
+  synchronized void put(Key key, double[] outflow, double[] storage) {
+    long size = size(key.days);
+    if (size > budget)
+      return;
+    double[][] old = entries.put(key, new double[][] {outflow, storage});
+    if (old == null)
+      used += size;
+    evict();
+  }
+
+  // Drops the entries of node and of every node downstream of it, which no
+  // key can reach once node has been edited.
+  synchronized void invalidate(WaterNode node) {
+    if (entries.isEmpty())
+      return;
+    Set<WaterNode> affected = new HashSet<>(List.of(node));
+    Deque<WaterNode> queue = new ArrayDeque<>(affected);
+    while (!queue.isEmpty()) {
+      for (WaterNode down : queue.poll().outflows) {
+        if (affected.add(down))
+          queue.add(down);
+      }
+    }
+    Iterator<Key> it = entries.keySet().iterator();
+    while (it.hasNext()) {
+      Key key = it.next();
+      if (affected.contains(key.node)) {
+        used -= size(key.days);
+        it.remove();
+      }
+    }
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<Key, double[][]>> it = entries.entrySet().iterator();
+    while (used > budget && it.hasNext()) {
+      used -= size(it.next().getKey().days);
+      it.remove();
+    }
+  }
+}
@@ -0,0 +1,338 @@
+package lox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lox.PrintableTable.BarStyle;
+import lox.UnitVal.Kind;
+
+/**
+ * The daily outflow and storage of every node of a finished simulation, as
+ * returned by node.simulate(days, rainfall). Series come back as views over
+ * the engine's arrays and statistics are computed when asked for, so nothing
+ * is copied or formatted unless a script uses it:
+ *
+ *   outflow(node), storage(node)  a node's series in litres, by name or node
+ *   peak(), total()               the simulated node's highest and summed
+ *                                 daily outflow in litres
+ *   table()                       the tables calculate prints
+ *   days, nodes                   run length and node names, upstream first
+ *   drained                       the day by the end of which nothing was
+ *                                 left to flow and no rain was to come, or
+ *                                 nil if water was still moving at the end
+ *
+ * simulate_all(days, rainfall) returns a map from outlet name to result for
+ * every outlet of every network the script can still reach, through a
+ * variable of any running scope or a list, map, field or closure. All of
+ * them come from one run, so shared headwaters are simulated once. Two
+ * reachable outlets with the same name are an error, since only one of them
+ * could be returned.
+ */
+final class SimulationResult {
+  // Upstream nodes first; the simulated node is last.
+  private final List<WaterNode> nodes;
+  private final Map<String, Integer> index = new HashMap<>();
+  private final double[][] outflow;
+  private final double[][] storage;
+  private final int days;
+  private final int drained;
+
+  private SimulationResult(List<WaterNode> nodes, double[][] outflow,
+                           double[][] storage, int days, int drained) {
+    this.nodes = nodes;
+    this.outflow = outflow;
+    this.storage = storage;
+    this.days = days;
+    this.drained = drained;
+    for (int i = 0; i < nodes.size(); i++)
+      index.put(nodes.get(i).name, i);
+  }
+
+  static void define(Environment globals) {
+    globals.define("simulate_all", new LoxCallable() {
+      private final Token where =
+          new Token(TokenType.IDENTIFIER, "simulate_all", null, 0);
+
+      @Override
+      public int arity() {
+        return 2;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        int days = Simulation.days(arguments.get(0), where);
+        RainfallSource rainfall = Rainfall.source(arguments.get(1), where);
+        return runAll(interpreter, outlets(interpreter.reachableNodes()),
+                      rainfall, days, where);
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn>";
+      }
+    });
+  }
+
+  static SimulationResult run(Interpreter interpreter, Simulation simulation) {
+    double[][][] series = step(interpreter, simulation);
+    return new SimulationResult(simulation.nodes, series[0], series[1],
+                                simulation.days, simulation.drainedAt());
+  }
+
+  // Runs the simulation to the end and returns every node's outflow and
+  // storage series.
+  private static double[][][] step(Interpreter interpreter,
+                                   Simulation simulation) {
+    int n = simulation.nodes.size();
+    int days = simulation.days;
+    double[][] outflow = new double[n][days];
+    double[][] storage = new double[n][days];
+    for (int day = 0; day < days; day++) {
+      simulation.step(interpreter);
+      for (int i = 0; i < n; i++) {
+        outflow[i][day] = simulation.outflow(i);
+        storage[i][day] = simulation.storage(i);
+      }
+      if (simulation.drainedAt() >= 0) {
+        // Outflows stay zero from here on; storage stays where it is.
+        for (int i = 0; i < n; i++)
+          Arrays.fill(storage[i], day + 1, days, storage[i][day]);
+        simulation.skipToEnd();
+        break;
+      }
+    }
+    return new double[][][] {outflow, storage};
+  }
+
+  // Nodes with nothing downstream, across every network that touches one of
+  // the given nodes, by name.
+  private static List<WaterNode> outlets(List<WaterNode> seeds) {
+    Set<WaterNode> seen = new HashSet<>(seeds);
+    Deque<WaterNode> queue = new ArrayDeque<>(seen);
+    List<WaterNode> outlets = new ArrayList<>();
+    while (!queue.isEmpty()) {
+      WaterNode node = queue.poll();
+      if (node.outflows.isEmpty())
+        outlets.add(node);
+      for (List<WaterNode> edges : List.of(node.inflows, node.outflows)) {
+        for (WaterNode next : edges) {
+          if (seen.add(next))
+            queue.add(next);
+        }
+      }
+    }
+    outlets.sort((a, b) -> a.name.compareTo(b.name));
+    return outlets;
+  }
+
+  // One run over all outlets, split into a result per outlet that shares the
+  // run's arrays.
+  private static LoxMap runAll(Interpreter interpreter,
+                               List<WaterNode> outlets,
+                               RainfallSource rainfall, int days,
+                               Token where) {
+    LoxMap results = new LoxMap();
+    if (outlets.isEmpty())
+      return results;
+    for (int i = 1; i < outlets.size(); i++) {
+      String name = outlets.get(i).name;
+      if (name.equals(outlets.get(i - 1).name))
+        throw new RuntimeError(where, "Two outlets are named '" + name + "'.");
+    }
+    Simulation simulation = new Simulation(outlets, rainfall, days,
+                                           interpreter.lox.simulationCache);
+    double[][][] series = step(interpreter, simulation);
+
+    Map<WaterNode, Integer> position = new HashMap<>();
+    for (int i = 0; i < simulation.nodes.size(); i++)
+      position.put(simulation.nodes.get(i), i);
+
+    for (WaterNode outlet : outlets) {
+      // The outlet's upstream closure, kept in run order so it comes last.
+      boolean[] member = new boolean[simulation.nodes.size()];
+      Deque<WaterNode> stack = new ArrayDeque<>(List.of(outlet));
+      member[position.get(outlet)] = true;
+      while (!stack.isEmpty()) {
+        for (WaterNode in : stack.pop().inflows) {
+          if (!member[position.get(in)]) {
+            member[position.get(in)] = true;
+            stack.push(in);
+          }
+        }
+      }
+
+      List<WaterNode> nodes = new ArrayList<>();
+      List<double[]> outflow = new ArrayList<>();
+      List<double[]> storage = new ArrayList<>();
+      for (int i = 0; i < member.length; i++) {
+        if (member[i]) {
+          nodes.add(simulation.nodes.get(i));
+          outflow.add(series[0][i]);
+          storage.add(series[1][i]);
+        }
+      }
+      results.put(where, outlet.name,
+                  new SimulationResult(nodes, outflow.toArray(new double[0][]),
+                                       storage.toArray(new double[0][]),
+                                       days, simulation.drainedAt()));
+    }
+    return results;
+  }
+
+  List<WaterNode> nodes() { return nodes; }
+
+  double[] outflow(int node) { return outflow[node]; }
+
+  double[] storage(int node) { return storage[node]; }
+
+  private int root() { return nodes.size() - 1; }
+
+  Object getProperty(Token name) {
+    switch (name.lexeme) {
+    case "days":
+      return (double)days;
+    case "drained":
+      return drained < 0 ? null : (double)drained;
+    case "nodes": {
+      List<Object> names = new ArrayList<>(nodes.size());
+      for (WaterNode node : nodes)
+        names.add(node.name);
+      return names;
+    }
+    case "outflow":
+      return method(name, 1, args -> new NumberArray(
+                                 outflow[nodeIndex(name, args.get(0))]));
+    case "storage":
+      return method(name, 1, args -> new NumberArray(
+                                 storage[nodeIndex(name, args.get(0))]));
+    case "peak":
+      return method(name, 0, args -> {
+        double peak = 0.0;
+        for (double v : outflow[root()])
+          peak = Math.max(peak, v);
+        return peak;
+      });
+    case "total":
+      return method(name, 0, args -> {
+        double total = 0.0;
+        for (double v : outflow[root()])
+          total += v;
+        return total;
+      });
+    case "table":
+      return method(name, 0, args -> table());
+    default:
+      throw new RuntimeError(name, "Unknown property '" + name.lexeme + "'.");
+    }
+  }
+
+  // A node of this run, by name or as the node value itself.
+  private int nodeIndex(Token where, Object key) {
+    String node = key instanceof NativeWaterNode n ? n.node.name
+                  : key instanceof String s        ? s
+                                                   : null;
+    Integer i = node == null ? null : index.get(node);
+    if (i == null)
+      throw new RuntimeError(where, "No node '" + key + "' in this simulation.");
+    return i;
+  }
+
+  // The volume table of every river and the outflow table of the simulated
+  // node, as calculate prints them.
+  TableReport table() {
+    List<Integer> rivers = new ArrayList<>();
+    for (int i = 0; i < nodes.size(); i++) {
+      if (nodes.get(i) instanceof River)
+        rivers.add(i);
+    }
+    rivers.sort((a, b) -> nodes.get(a).name.compareTo(nodes.get(b).name));
+
+    // Volume table
+    List<String> headers = new ArrayList<>();
+    headers.add("");
+    for (int r : rivers)
+      headers.add(nodes.get(r).name);
+
+    PrintableTable volumeTable = new PrintableTable(false, BarStyle.DOUBLE);
+    volumeTable.addTitle(" Volume (After Outflow) ")
+        .addRow(headers)
+        .addHeaderDivider()
+        .addRows(days, 1 + rivers.size(), (row, column, out) -> {
+          if (column == 0)
+            out.append("Day ").append(row + 1);
+          else
+            UnitVal.appendCanonical(
+                out, storage[rivers.get(column - 1)][row], Kind.VOLUME);
+        })
+        .addEndCap();
+
+    // Outflow table
+    double[] rootOut = outflow[root()];
+    double[] accumulated = new double[days];
+    double accum = 0.0;
+    for (int d = 0; d < days; d++) {
+      accum += rootOut[d];
+      accumulated[d] = accum;
+    }
+
+    PrintableTable outflowTable = new PrintableTable(true, BarStyle.DOUBLE);
+    outflowTable.addTitle(" " + nodes.get(root()).name + " Outflow ")
+        .addRows(1, 1 + days, (row, column, out) -> {
+          if (column > 0)
+            out.append("Day ").append(column);
+        })
+        .addHeaderDivider()
+        .addRows(1, 1 + days, volumeRow("Outflow", rootOut))
+        .addRows(1, 1 + days, volumeRow("Storage", storage[root()]))
+        .addDivider()
+        .addRows(1, 1 + days, volumeRow("Accumulated", accumulated))
+        .addEndCap();
+
+    return new TableReport(List.of(volumeTable, outflowTable));
+  }
+
+  // A labelled row of volumes in litres, one per day.
+  private static PrintableTable.Cells volumeRow(String label,
+                                                double[] litres) {
+    return (row, column, out) -> {
+      if (column == 0)
+        out.append(label);
+      else
+        UnitVal.appendCanonical(out, litres[column - 1], Kind.VOLUME);
+    };
+  }
+
+  private interface Body {
+    Object call(List<Object> args);
+  }
+
+  private static LoxCallable method(Token name, int arity, Body body) {
+    return new LoxCallable() {
+      @Override
+      public int arity() {
+        return arity;
+      }
+
+      @Override
+      public Object call(Interpreter interpreter, List<Object> arguments) {
+        return body.call(arguments);
+      }
+
+      @Override
+      public String toString() {
+        return "<native fn " + name.lexeme + ">";
+      }
+    };
+  }
+
+  @Override
+  public String toString() {
+    return "<simulation " + nodes.get(root()).name + " " + days + " days>";
+  }
+}
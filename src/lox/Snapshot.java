@@ -0,0 +1,697 @@
+package lox;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of a compiled program, stored next to the script as
+ * "<script>c" (e.g. basin.rloxc). Loading one skips the scanner, parser and
+ * resolver entirely; it is only used when the SHA-256 of the source matches.
+ *
+ * Layout (big-endian): magic, version, source hash, the string table (every
+ * lexeme and string literal, interned once), the literal pool, then the
+ * statements in prefix order. Each node starts with a tag byte; resolvable
+ * expressions are followed by their scope depth (-1 for globals).
+ */
+final class Snapshot {
+  // Scripts smaller than this compile faster than a snapshot round trip.
+  static final int MIN_SOURCE_BYTES = 1 << 16;
+
+  private static final int MAGIC = 0x524c5853; // "RLXS"
+  private static final int VERSION = 1;
+
+  private static final byte NULL = 0;
+  // Expressions.
+  private static final byte ASSIGN = 1;
+  private static final byte ARRAY = 2;
+  private static final byte BINARY = 3;
+  private static final byte CALL = 4;
+  private static final byte DICTIONARY = 5;
+  private static final byte GET = 6;
+  private static final byte GROUPING = 7;
+  private static final byte LAMBDA = 8;
+  private static final byte LITERAL = 9;
+  private static final byte LOGICAL = 10;
+  private static final byte SET = 11;
+  private static final byte SUPER = 12;
+  private static final byte THIS = 13;
+  private static final byte UNARY = 14;
+  private static final byte VARIABLE = 15;
+  // Statements.
+  private static final byte BLOCK = 32;
+  private static final byte CLASS = 33;
+  private static final byte EXPRESSION = 34;
+  private static final byte EDGE = 35;
+  private static final byte FUNCTION = 36;
+  private static final byte IF = 37;
+  private static final byte PARALLEL_FOR = 38;
+  private static final byte RETURN = 39;
+  private static final byte PRINT = 40;
+  private static final byte VAR = 41;
+  private static final byte WHILE = 42;
+  private static final byte NODE_DECL = 43;
+
+  // Literal pool tags.
+  private static final byte NIL = 0;
+  private static final byte TRUE = 1;
+  private static final byte FALSE = 2;
+  private static final byte NUMBER = 3;
+  private static final byte STRING = 4;
+
+  private Snapshot() {}
+
+  static Path pathFor(Path script) {
+    return script.resolveSibling(script.getFileName() + "c");
+  }
+
+  static byte[] sha256(ByteBuffer source) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(source.duplicate());
+      return digest.digest();
+    } catch (NoSuchAlgorithmException error) {
+      throw new IllegalStateException(error);
+    }
+  }
+
+  /**
+   * Loads the snapshot for script if there is one for exactly this source.
+   * Returns null if it is missing, stale or unreadable.
+   */
+  static Lox.Program load(Path script, byte[] hash) {
+    Path path = pathFor(script);
+    if (!Files.isRegularFile(path))
+      return null;
+
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      MappedByteBuffer buffer =
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+        return null;
+      byte[] stored = new byte[hash.length];
+      buffer.get(stored);
+      if (!Arrays.equals(stored, hash))
+        return null;
+      return new Reader(buffer).program();
+    } catch (IOException | RuntimeException error) {
+      // A damaged snapshot is treated like a missing one.
+      return null;
+    }
+  }
+
+  // Writes the snapshot next to script. Failures are ignored: the snapshot is
+  // only a cache.
+  static void save(Path script, byte[] hash, Lox.Program program) {
+    Path path = pathFor(script);
+    try {
+      Writer writer = new Writer(program.locals);
+      writer.statements(program.statements);
+
+      Path temp = Files.createTempFile(path.toAbsolutePath().getParent(),
+                                       path.getFileName().toString(), ".tmp");
+      try (DataOutputStream out = new DataOutputStream(
+               new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.write(hash);
+        writer.writeTo(out);
+      }
+      Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | UnsupportedOperationException error) {
+      // Read-only directory or similar; run without a snapshot.
+    }
+  }
+
+  private static final class Writer
+      implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final Object NULL_KEY = new Object();
+
+    private final Map<Expr, Integer> locals;
+    private final Map<String, Integer> stringIds = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+    private final Map<Object, Integer> literalIds = new HashMap<>();
+    private final List<Object> literals = new ArrayList<>();
+    private final Buffer body = new Buffer();
+
+    Writer(Map<Expr, Integer> locals) { this.locals = locals; }
+
+    // Call after the statements: the tables are complete only then.
+    void writeTo(DataOutputStream out) throws IOException {
+      out.writeInt(strings.size());
+      for (String s : strings) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+
+      out.writeInt(literals.size());
+      for (Object literal : literals) {
+        if (literal == null) {
+          out.writeByte(NIL);
+        } else if (literal instanceof Boolean b) {
+          out.writeByte(b ? TRUE : FALSE);
+        } else if (literal instanceof Double d) {
+          out.writeByte(NUMBER);
+          out.writeDouble(d);
+        } else {
+          out.writeByte(STRING);
+          out.writeInt(string((String)literal));
+        }
+      }
+
+      out.writeInt(body.size);
+      out.write(body.bytes, 0, body.size);
+    }
+
+    void statements(List<Stmt> statements) {
+      body.putInt(statements.size());
+      for (Stmt stmt : statements)
+        stmt(stmt);
+    }
+
+    private void stmt(Stmt stmt) {
+      if (stmt == null) {
+        body.put(NULL);
+        return;
+      }
+      stmt.accept(this);
+    }
+
+    private void expr(Expr expr) {
+      if (expr == null) {
+        body.put(NULL);
+        return;
+      }
+      expr.accept(this);
+    }
+
+    private void exprs(List<? extends Expr> exprs) {
+      body.putInt(exprs.size());
+      for (Expr expr : exprs)
+        expr(expr);
+    }
+
+    private void token(Token token) {
+      if (token == null) {
+        body.put((byte)-1);
+        return;
+      }
+      body.put((byte)token.type.ordinal());
+      body.putInt(string(token.lexeme));
+      body.putInt(token.literal == null ? -1 : literal(token.literal));
+      body.putInt(token.line);
+    }
+
+    private void tokens(List<Token> tokens) {
+      body.putInt(tokens.size());
+      for (Token token : tokens)
+        token(token);
+    }
+
+    private void depth(Expr expr) {
+      Integer depth = locals.get(expr);
+      body.putInt(depth == null ? -1 : depth);
+    }
+
+    private int string(String s) {
+      Integer id = stringIds.get(s);
+      if (id == null) {
+        id = strings.size();
+        strings.add(s);
+        stringIds.put(s, id);
+      }
+      return id;
+    }
+
+    private int literal(Object value) {
+      // Boxed values compare by value, so equal literals share a pool entry.
+      Object key = value == null ? NULL_KEY : value;
+      Integer id = literalIds.get(key);
+      if (id == null) {
+        id = literals.size();
+        literals.add(value);
+        literalIds.put(key, id);
+        if (value instanceof String s)
+          string(s);
+      }
+      return id;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      body.put(ASSIGN);
+      token(expr.name);
+      expr(expr.value);
+      depth(expr);
+      return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+      body.put(ARRAY);
+      exprs(expr.elements);
+      return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      body.put(BINARY);
+      expr(expr.left);
+      token(expr.operator);
+      expr(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      body.put(CALL);
+      expr(expr.callee);
+      token(expr.paren);
+      exprs(expr.arguments);
+      return null;
+    }
+
+    @Override
+    public Void visitDictionaryExpr(Expr.Dictionary expr) {
+      body.put(DICTIONARY);
+      token(expr.brace);
+      exprs(expr.keys);
+      exprs(expr.values);
+      return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+      body.put(GET);
+      expr(expr.object);
+      token(expr.name);
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      body.put(GROUPING);
+      expr(expr.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitLambdaExpr(Expr.Lambda expr) {
+      body.put(LAMBDA);
+      tokens(expr.params);
+      statements(expr.body);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      body.put(LITERAL);
+      body.putInt(literal(expr.value));
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      body.put(LOGICAL);
+      expr(expr.left);
+      token(expr.operator);
+      expr(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+      body.put(SET);
+      expr(expr.object);
+      token(expr.name);
+      expr(expr.value);
+      return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+      body.put(SUPER);
+      token(expr.keyword);
+      token(expr.method);
+      depth(expr);
+      return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+      body.put(THIS);
+      token(expr.keyword);
+      depth(expr);
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      body.put(UNARY);
+      token(expr.operator);
+      expr(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      body.put(VARIABLE);
+      token(expr.name);
+      depth(expr);
+      return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      body.put(BLOCK);
+      statements(stmt.statements);
+      return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+      body.put(CLASS);
+      token(stmt.name);
+      expr(stmt.superclass);
+      body.putInt(stmt.methods.size());
+      for (Stmt.Function method : stmt.methods)
+        stmt(method);
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      body.put(EXPRESSION);
+      expr(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitEdgeStmt(Stmt.Edge stmt) {
+      body.put(EDGE);
+      expr(stmt.from);
+      token(stmt.arrow);
+      expr(stmt.to);
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      body.put(FUNCTION);
+      token(stmt.name);
+      tokens(stmt.params);
+      statements(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      body.put(IF);
+      expr(stmt.condition);
+      stmt(stmt.thenBranch);
+      stmt(stmt.elseBranch);
+      return null;
+    }
+
+    @Override
+    public Void visitParallelForStmt(Stmt.ParallelFor stmt) {
+      body.put(PARALLEL_FOR);
+      token(stmt.keyword);
+      token(stmt.name);
+      expr(stmt.iterable);
+      stmt(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      body.put(RETURN);
+      token(stmt.keyword);
+      expr(stmt.value);
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      body.put(PRINT);
+      expr(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      body.put(VAR);
+      token(stmt.name);
+      expr(stmt.initializer);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      body.put(WHILE);
+      expr(stmt.condition);
+      stmt(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitNodeDeclStmt(Stmt.NodeDecl stmt) {
+      body.put(NODE_DECL);
+      token(stmt.kind);
+      token(stmt.name);
+      body.putInt(stmt.props.size());
+      for (Map.Entry<String, Expr> prop : stmt.props.entrySet()) {
+        body.putInt(string(prop.getKey()));
+        expr(prop.getValue());
+      }
+      return null;
+    }
+  }
+
+  // Growable byte array for the statement section.
+  private static final class Buffer {
+    byte[] bytes = new byte[1 << 12];
+    int size = 0;
+
+    void put(byte b) {
+      ensure(1);
+      bytes[size++] = b;
+    }
+
+    void putInt(int v) {
+      ensure(4);
+      bytes[size++] = (byte)(v >>> 24);
+      bytes[size++] = (byte)(v >>> 16);
+      bytes[size++] = (byte)(v >>> 8);
+      bytes[size++] = (byte)v;
+    }
+
+    private void ensure(int n) {
+      if (size + n > bytes.length)
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + n));
+    }
+  }
+
+  private static final class Reader {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private final ByteBuffer in;
+    private final Map<Expr, Integer> locals = new HashMap<>();
+    private String[] strings;
+    private Object[] literals;
+
+    Reader(ByteBuffer in) { this.in = in; }
+
+    Lox.Program program() {
+      strings = readStrings();
+      literals = new Object[in.getInt()];
+      for (int i = 0; i < literals.length; i++) {
+        byte tag = in.get();
+        switch (tag) {
+        case NIL:
+          literals[i] = null;
+          break;
+        case TRUE:
+          literals[i] = true;
+          break;
+        case FALSE:
+          literals[i] = false;
+          break;
+        case NUMBER:
+          literals[i] = in.getDouble();
+          break;
+        case STRING:
+          literals[i] = strings[in.getInt()];
+          break;
+        default:
+          throw new IllegalStateException("Bad literal tag " + tag);
+        }
+      }
+      in.getInt(); // statement section length
+      List<Stmt> statements = statements();
+      return new Lox.Program(statements, locals);
+    }
+
+    private String[] readStrings() {
+      String[] out = new String[in.getInt()];
+      for (int i = 0; i < out.length; i++) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        out[i] = new String(bytes, StandardCharsets.UTF_8);
+      }
+      return out;
+    }
+
+    private List<Stmt> statements() {
+      int n = in.getInt();
+      List<Stmt> out = new ArrayList<>(n);
+      for (int i = 0; i < n; i++)
+        out.add(stmt());
+      return out;
+    }
+
+    private List<Expr> exprs() {
+      int n = in.getInt();
+      List<Expr> out = new ArrayList<>(n);
+      for (int i = 0; i < n; i++)
+        out.add(expr());
+      return out;
+    }
+
+    private Token token() {
+      byte type = in.get();
+      if (type == -1)
+        return null;
+      String lexeme = strings[in.getInt()];
+      int literal = in.getInt();
+      int line = in.getInt();
+      return new Token(TYPES[type], lexeme,
+                       literal == -1 ? null : literals[literal], line);
+    }
+
+    private List<Token> tokens() {
+      int n = in.getInt();
+      List<Token> out = new ArrayList<>(n);
+      for (int i = 0; i < n; i++)
+        out.add(token());
+      return out;
+    }
+
+    private <E extends Expr> E depth(E expr) {
+      int depth = in.getInt();
+      if (depth >= 0)
+        locals.put(expr, depth);
+      return expr;
+    }
+
+    private Expr expr() {
+      byte tag = in.get();
+      switch (tag) {
+      case NULL:
+        return null;
+      case ASSIGN: {
+        Token name = token();
+        return depth(new Expr.Assign(name, expr()));
+      }
+      case ARRAY:
+        return new Expr.Array(exprs());
+      case BINARY:
+        return new Expr.Binary(expr(), token(), expr());
+      case CALL:
+        return new Expr.Call(expr(), token(), exprs());
+      case DICTIONARY:
+        return new Expr.Dictionary(token(), exprs(), exprs());
+      case GET:
+        return new Expr.Get(expr(), token());
+      case GROUPING:
+        return new Expr.Grouping(expr());
+      case LAMBDA:
+        return new Expr.Lambda(tokens(), statements());
+      case LITERAL:
+        return new Expr.Literal(literals[in.getInt()]);
+      case LOGICAL:
+        return new Expr.Logical(expr(), token(), expr());
+      case SET:
+        return new Expr.Set(expr(), token(), expr());
+      case SUPER:
+        return depth(new Expr.Super(token(), token()));
+      case THIS:
+        return depth(new Expr.This(token()));
+      case UNARY:
+        return new Expr.Unary(token(), expr());
+      case VARIABLE:
+        return depth(new Expr.Variable(token()));
+      default:
+        throw new IllegalStateException("Bad expression tag " + tag);
+      }
+    }
+
+    private Stmt stmt() {
+      byte tag = in.get();
+      switch (tag) {
+      case NULL:
+        return null;
+      case BLOCK:
+        return new Stmt.Block(statements());
+      case CLASS: {
+        Token name = token();
+        Expr.Variable superclass = (Expr.Variable)expr();
+        int n = in.getInt();
+        List<Stmt.Function> methods = new ArrayList<>(n);
+        for (int i = 0; i < n; i++)
+          methods.add((Stmt.Function)stmt());
+        return new Stmt.Class(name, superclass, methods);
+      }
+      case EXPRESSION:
+        return new Stmt.Expression(expr());
+      case EDGE:
+        return new Stmt.Edge((Expr.Variable)expr(), token(),
+                             (Expr.Variable)expr());
+      case FUNCTION:
+        return new Stmt.Function(token(), tokens(), statements());
+      case IF:
+        return new Stmt.If(expr(), stmt(), stmt());
+      case PARALLEL_FOR:
+        return new Stmt.ParallelFor(token(), token(), expr(), stmt());
+      case RETURN:
+        return new Stmt.Return(token(), expr());
+      case PRINT:
+        return new Stmt.Print(expr());
+      case VAR:
+        return new Stmt.Var(token(), expr());
+      case WHILE:
+        return new Stmt.While(expr(), stmt());
+      case NODE_DECL: {
+        Token kind = token();
+        Token name = token();
+        int n = in.getInt();
+        Map<String, Expr> props = new HashMap<>();
+        for (int i = 0; i < n; i++) {
+          String key = strings[in.getInt()];
+          props.put(key, expr());
+        }
+        return new Stmt.NodeDecl(kind, name, props);
+      }
+      default:
+        throw new IllegalStateException("Bad statement tag " + tag);
+      }
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package lox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rainfall that differs per node, keyed by node name. Every series is
+ * unpacked once up front, so a node's inner loop indexes its own series with
+ * no lookups or boxing per day.
+ */
+final class SpatialRainfall implements RainfallSource {
+  private final Map<String, Rainfall> byName;
+  private final Token where;
+
+  private SpatialRainfall(Map<String, Rainfall> byName, Token where) {
+    this.byName = byName;
+    this.where = where;
+  }
+
+  // Map values may be arrays or series, such as columns of a rainfall file.
+  static SpatialRainfall of(LoxMap map, Token where) {
+    Map<String, Rainfall> byName = new HashMap<>();
+    List<Object> keys = map.keys();
+    List<Object> values = map.values();
+    for (int i = 0; i < keys.size(); i++) {
+      if (!(keys.get(i) instanceof String name)) {
+        throw new RuntimeError(where,
+                               "Rainfall maps must be keyed by node name.");
+      }
+      byName.put(name, Rainfall.from(values.get(i), where));
+    }
+    return new SpatialRainfall(byName, where);
+  }
+
+  // One column per node, named by the file's header.
+  static SpatialRainfall of(RainfallFile file, Token where) {
+    Map<String, Rainfall> byName = new HashMap<>();
+    for (int c = 0; c < file.columns; c++)
+      byName.put(file.names.get(c), file.column(c));
+    return new SpatialRainfall(byName, where);
+  }
+
+  // A CSV file with a header: one column per node when the header names any
+  // node of the network being run, otherwise column 0 for all of them, as
+  // an ordinary day,rain file.
+  static RainfallSource byHeader(RainfallFile file, Token where) {
+    return new RainfallSource() {
+      @Override
+      public Rainfall forNode(WaterNode node) {
+        return file;
+      }
+
+      @Override
+      public RainfallSource forNetwork(List<WaterNode> nodes) {
+        for (WaterNode node : nodes) {
+          if (file.names.contains(node.name))
+            return of(file, where);
+        }
+        return file;
+      }
+    };
+  }
+
+  @Override
+  public Rainfall forNode(WaterNode node) {
+    Rainfall rainfall = byName.get(node.name);
+    if (rainfall == null) {
+      throw new RuntimeError(where,
+                             "No rainfall given for node '" + node.name + "'.");
+    }
+    return rainfall;
+  }
+}
@@ -11,6 +11,7 @@ abstract class Stmt {
 		R visitEdgeStmt(Edge stmt);
 		R visitFunctionStmt(Function stmt);
 		R visitIfStmt(If stmt);
+		R visitParallelForStmt(ParallelFor stmt);
 		R visitReturnStmt(Return stmt);
 		R visitPrintStmt(Print stmt);
 		R visitVarStmt(Var stmt);
@@ -105,6 +106,24 @@ abstract class Stmt {
 		final Stmt thenBranch;
 		final Stmt elseBranch;
 	}
+	static class ParallelFor extends Stmt {
+		ParallelFor(Token keyword, Token name, Expr iterable, Stmt body) {
+			this.keyword = keyword;
+			this.name = name;
+			this.iterable = iterable;
+			this.body = body;
+		}
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitParallelForStmt(this);
+		}
+
+		final Token keyword;
+		final Token name;
+		final Expr iterable;
+		final Stmt body;
+	}
 	static class Return extends Stmt {
 		Return(Token keyword, Expr value) {
 			this.keyword = keyword;
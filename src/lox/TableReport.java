@@ -0,0 +1,40 @@
+package lox;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tables a native returns for printing. print streams them straight to the
+ * interpreter's output; anything else that needs the text (concatenation,
+ * parallel_map results) gets it from toString.
+ */
+final class TableReport {
+  private final List<PrintableTable> tables;
+
+  TableReport(List<PrintableTable> tables) { this.tables = tables; }
+
+  void writeTo(Appendable out) throws IOException {
+    for (PrintableTable table : tables)
+      table.renderTo(out);
+  }
+
+  // Reports compare by their text, as the strings they replace did.
+  @Override
+  public boolean equals(Object other) {
+    return other instanceof TableReport report &&
+        toString().equals(report.toString());
+  }
+
+  @Override
+  public int hashCode() {
+    return toString().hashCode();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (PrintableTable table : tables)
+      sb.append(table.render());
+    return sb.toString();
+  }
+}
@@ -0,0 +1,176 @@
+package lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Scanner output as parallel arrays: type, start offset, length, line and
+ * lexeme symbol per token. Identifier, number and string lexemes are interned
+ * through a symbol table, so each distinct spelling becomes one String no
+ * matter how often it appears; every other token's lexeme is fixed by its
+ * type. Token objects are only made when the parser asks for one.
+ */
+final class TokenStream {
+  private static final TokenType[] TYPES = TokenType.values();
+  private static final String[] FIXED = new String[TYPES.length];
+
+  static {
+    String[][] fixed = {
+        {"LEFT_PAREN", "("},  {"RIGHT_PAREN", ")"},   {"LEFT_BRACE", "{"},
+        {"RIGHT_BRACE", "}"}, {"LEFT_BRACKET", "["},  {"RIGHT_BRACKET", "]"},
+        {"COMMA", ","},       {"DOT", "."},           {"MINUS", "-"},
+        {"PLUS", "+"},        {"SEMICOLON", ";"},     {"COLON", ":"},
+        {"SLASH", "/"},       {"STAR", "*"},          {"BANG", "!"},
+        {"BANG_EQUAL", "!="}, {"EQUAL", "="},         {"EQUAL_EQUAL", "=="},
+        {"GREATER", ">"},     {"GREATER_EQUAL", ">="}, {"LESS", "<"},
+        {"LESS_EQUAL", "<="}, {"RSHIFT", ">>"},       {"ARROW", "=>"},
+        {"EOF", ""},
+    };
+    for (String[] entry : fixed)
+      FIXED[TokenType.valueOf(entry[0]).ordinal()] = entry[1];
+    // Keywords are spelled like their type.
+    for (TokenType type : TYPES) {
+      if (type.ordinal() >= TokenType.AND.ordinal() &&
+          type.ordinal() < TokenType.EOF.ordinal()) {
+        FIXED[type.ordinal()] = type.name().toLowerCase();
+      }
+    }
+  }
+
+  private byte[] types;
+  private int[] starts;
+  private int[] lengths;
+  private int[] lines;
+  private int[] symbols;
+  private Object[] literals;
+  private int size = 0;
+  private final SymbolTable symbolTable = new SymbolTable();
+
+  TokenStream(int capacity) {
+    capacity = Math.max(16, capacity);
+    types = new byte[capacity];
+    starts = new int[capacity];
+    lengths = new int[capacity];
+    lines = new int[capacity];
+    symbols = new int[capacity];
+    literals = new Object[capacity];
+  }
+
+  // Adds a token whose lexeme is fixed by its type.
+  void add(TokenType type, int start, int length, int line, Object literal) {
+    add(type, start, length, line, -1, literal);
+  }
+
+  // Adds a token whose lexeme is interned from source[start, start + length).
+  void addInterned(TokenType type, ByteBuffer source, int start, int length,
+                   int line, Object literal) {
+    add(type, start, length, line,
+        symbolTable.intern(source, start, length), literal);
+  }
+
+  private void add(TokenType type, int start, int length, int line, int symbol,
+                   Object literal) {
+    if (size == types.length) {
+      int capacity = size * 2;
+      types = Arrays.copyOf(types, capacity);
+      starts = Arrays.copyOf(starts, capacity);
+      lengths = Arrays.copyOf(lengths, capacity);
+      lines = Arrays.copyOf(lines, capacity);
+      symbols = Arrays.copyOf(symbols, capacity);
+      literals = Arrays.copyOf(literals, capacity);
+    }
+    types[size] = (byte)type.ordinal();
+    starts[size] = start;
+    lengths[size] = length;
+    lines[size] = line;
+    symbols[size] = symbol;
+    literals[size] = literal;
+    size++;
+  }
+
+  int size() { return size; }
+
+  TokenType type(int index) { return TYPES[types[index]]; }
+
+  int start(int index) { return starts[index]; }
+
+  int length(int index) { return lengths[index]; }
+
+  int line(int index) { return lines[index]; }
+
+  Token token(int index) {
+    int symbol = symbols[index];
+    String lexeme =
+        symbol >= 0 ? symbolTable.name(symbol) : FIXED[types[index]];
+    return new Token(type(index), lexeme, literals[index], lines[index]);
+  }
+
+  // Open-addressed intern table from byte spellings to Strings.
+  private static final class SymbolTable {
+    private int[] slots = new int[1 << 10];
+    private int[] hashes = new int[1 << 9];
+    private String[] names = new String[1 << 9];
+    private byte[][] spellings = new byte[1 << 9][];
+    private int count = 0;
+
+    SymbolTable() { Arrays.fill(slots, -1); }
+
+    String name(int symbol) { return names[symbol]; }
+
+    int intern(ByteBuffer source, int start, int length) {
+      int h = 0x811C9DC5;
+      for (int i = start; i < start + length; i++)
+        h = (h ^ source.get(i)) * 0x01000193;
+
+      int mask = slots.length - 1;
+      int slot = h & mask;
+      while (slots[slot] != -1) {
+        int symbol = slots[slot];
+        if (hashes[symbol] == h && same(spellings[symbol], source, start, length))
+          return symbol;
+        slot = (slot + 1) & mask;
+      }
+
+      if (count == names.length)
+        grow();
+      byte[] spelling = new byte[length];
+      source.get(start, spelling);
+      spellings[count] = spelling;
+      names[count] = new String(spelling, StandardCharsets.UTF_8);
+      hashes[count] = h;
+      insert(count);
+      return count++;
+    }
+
+    private void insert(int symbol) {
+      int mask = slots.length - 1;
+      int slot = hashes[symbol] & mask;
+      while (slots[slot] != -1)
+        slot = (slot + 1) & mask;
+      slots[slot] = symbol;
+    }
+
+    private void grow() {
+      int capacity = names.length * 2;
+      names = Arrays.copyOf(names, capacity);
+      spellings = Arrays.copyOf(spellings, capacity);
+      hashes = Arrays.copyOf(hashes, capacity);
+      slots = new int[capacity * 2];
+      Arrays.fill(slots, -1);
+      for (int symbol = 0; symbol < count; symbol++)
+        insert(symbol);
+    }
+
+    private static boolean same(byte[] spelling, ByteBuffer source, int start,
+                                int length) {
+      if (spelling.length != length)
+        return false;
+      for (int i = 0; i < length; i++) {
+        if (spelling[i] != source.get(start + i))
+          return false;
+      }
+      return true;
+    }
+  }
+}
@@ -54,6 +54,7 @@ enum TokenType {
   WHILE,
   RIVER,
   DAM,
+  PARALLEL,
 
   EOF
 }
\ No newline at end of file
@@ -1,8 +1,7 @@
 package lox;
 
-import java.math.BigDecimal;
-import java.math.MathContext;
-import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 
 public final class UnitVal {
@@ -55,36 +54,46 @@ public final class UnitVal {
       return canonicalValue / factor;
     }
 
+    private static final PerfectHash<Unit> EXACT = labels(false);
+    private static final PerfectHash<Unit> FOLDED = labels(true);
+
+    // Earlier units win when labels differ only by case.
+    private static PerfectHash<Unit> labels(boolean ignoreCase) {
+      Unit[] units = values();
+      String[] labels = new String[units.length];
+      for (int i = 0; i < units.length; i++)
+        labels[i] = units[i].label;
+      return new PerfectHash<>(labels, units, ignoreCase);
+    }
+
     public static Unit parse(String s) {
       if (s == null)
         return null;
-      String norm = s.trim();
-
-      for (Unit u : values()) {
-        if (u.label.equals(norm))
-          return u;
-      }
-
-      String lower = norm.toLowerCase();
-      for (Unit u : values()) {
-        if (u.label.toLowerCase().equals(lower))
-          return u;
-      }
+      byte[] bytes = s.trim().getBytes(StandardCharsets.UTF_8);
+      return parse(ByteBuffer.wrap(bytes), 0, bytes.length);
+    }
 
-      return null;
+    // Exact label first, then case-insensitive, straight from source bytes.
+    static Unit parse(ByteBuffer source, int start, int length) {
+      Unit exact = EXACT.get(source, start, length);
+      return exact != null ? exact : FOLDED.get(source, start, length);
     }
 
+    private static final Unit[] LENGTHS = {KM, M, CM, MM};
+    private static final Unit[] AREAS = {SQKM, HA, SQM};
+    private static final Unit[] VOLUMES = {MEGALITER, KL, L, ML};
+
     public static Unit bestFor(Kind kind, double canonicalValue) {
       Unit[] candidates;
       switch (kind) {
       case LENGTH:
-        candidates = new Unit[] {KM, M, CM, MM};
+        candidates = LENGTHS;
         break;
       case AREA:
-        candidates = new Unit[] {SQKM, HA, SQM};
+        candidates = AREAS;
         break;
       case VOLUME:
-        candidates = new Unit[] {MEGALITER, KL, L, ML};
+        candidates = VOLUMES;
         break;
       default:
         return null;
@@ -134,33 +143,29 @@ public final class UnitVal {
 
   @Override
   public String toString() {
-    Unit display =
-        preferred != null ? preferred : Unit.bestFor(kind, canonicalValue);
-
-    double d = display.fromCanonical(canonicalValue);
-    return fmt(d) + display.label;
+    StringBuilder out = new StringBuilder(24);
+    appendTo(out);
+    return out.toString();
   }
 
-  private static String fmt(double d) {
-    if (Double.isNaN(d) || Double.isInfinite(d))
-      return Double.toString(d);
-
-    // Remove tiny floating-point noise that we don't want to see.
-    // - For |x| >= 1: round to 12 decimal places.
-    // - For |x| < 1: round to 12 significant digits.
-
-    BigDecimal bd = BigDecimal.valueOf(d);
-    BigDecimal rounded;
-
-    double abs = Math.abs(d);
+  public void appendTo(StringBuilder out) {
+    append(out, canonicalValue, kind, preferred);
+  }
 
-    if (abs >= 1.0) {
-      rounded = bd.setScale(12, RoundingMode.HALF_UP);
-    } else {
-      rounded = bd.round(new MathContext(12, RoundingMode.HALF_UP));
-    }
+  // Appends a canonical value in the unit that reads best, as toString would
+  // for ofCanonical(canonicalValue, kind), without creating the UnitVal.
+  static void appendCanonical(StringBuilder out, double canonicalValue,
+                              Kind kind) {
+    append(out, canonicalValue, kind, null);
+  }
 
-    rounded = rounded.stripTrailingZeros();
-    return rounded.toPlainString();
+  // Tiny floating-point noise is rounded away: values of at least one unit
+  // keep 12 decimal places, smaller ones 12 significant digits.
+  private static void append(StringBuilder out, double canonicalValue,
+                             Kind kind, Unit preferred) {
+    Unit display =
+        preferred != null ? preferred : Unit.bestFor(kind, canonicalValue);
+    DoubleFormat.append(out, display.fromCanonical(canonicalValue));
+    out.append(display.label);
   }
-}
\ No newline at end of file
+}
@@ -7,33 +7,69 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public abstract class WaterNode {
   protected final String name;
   protected final List<WaterNode> inflows = new ArrayList<>();
   protected final List<WaterNode> outflows = new ArrayList<>();
-  protected final Interpreter interpreter;
 
-  protected WaterNode(Interpreter interpreter, String name) {
-    this.interpreter = interpreter;
-    this.name = name;
-  }
+  private static final AtomicLong versions = new AtomicLong();
+  // Unique across all nodes, and renewed whenever what this node does or
+  // what flows into it changes; SimulationCache keys on it.
+  private volatile long version = versions.incrementAndGet();
+
+  protected WaterNode(String name) { this.name = name; }
 
   public void addInflow(WaterNode upstream) {
     if (upstream == null)
       throw new IllegalArgumentException("upstream null");
     inflows.add(upstream);
     upstream.outflows.add(this);
+    touch();
+  }
+
+  // Removes one upstream >> this edge; false if there is none.
+  public boolean removeInflow(WaterNode upstream) {
+    if (!inflows.remove(upstream))
+      return false;
+    upstream.outflows.remove(this);
+    touch();
+    return true;
+  }
+
+  // Sets a declared property, as a node declaration would have.
+  final void set(Token where, String key, Object value) {
+    setProperty(where, key, value);
+    touch();
   }
 
+  protected void setProperty(Token where, String key, Object value) {
+    throw new RuntimeError(where, "Node '" + name + "' has no property '" +
+                                      key + "'.");
+  }
+
+  protected static double number(Token where, String key, Object value) {
+    if (!(value instanceof Double d)) {
+      throw new RuntimeError(where, "Property '" + key +
+                                        "' must be number or a unit");
+    }
+    return d;
+  }
+
+  long version() { return version; }
+
+  protected void touch() { version = versions.incrementAndGet(); }
+
   public boolean isLeaf() { return inflows.isEmpty(); }
 
   /**
    * Public calculate entry; returns total outflow time-series for this node.
-   * Length is 'days'.
+   * Length is 'days'. Lox callbacks run on the given interpreter.
    */
-  public double[] calculate(int days, double[] rainfall) {
-    DetailedResult res = calculateDetailed(days, rainfall);
+  public double[] calculate(Interpreter interpreter, int days,
+                            RainfallSource rainfall) {
+    DetailedResult res = calculateDetailed(interpreter, days, rainfall);
     double[] out = res.totalOutByNode.get(this);
     if (out == null)
       return new double[days];
@@ -42,43 +78,21 @@ public abstract class WaterNode {
 
   /**
    * Detailed evaluation returning per-node total outflows and per-day volumes
-   * (backlog) within each node. No memoization, cycle-safe.
+   * (backlog) within each node upstream of (and including) this one.
    */
-  public DetailedResult calculateDetailed(int days, double[] rainfall) {
+  public DetailedResult calculateDetailed(Interpreter interpreter, int days,
+                                          RainfallSource rainfall) {
     if (rainfall == null)
       throw new IllegalArgumentException("rainfall null");
-    Set<WaterNode> visiting = new HashSet<>();
+    SimulationResult run = SimulationResult.run(
+        interpreter, new Simulation(this, rainfall, days,
+                                    interpreter.lox.simulationCache));
     DetailedResult res = new DetailedResult();
-    evaluateDetailed(days, rainfall, visiting, res);
-    return res;
-  }
-
-  // Cycle-safe detailed evaluation wrapper.
-  protected final NodeOutputs evaluateDetailed(int days, double[] rainfall,
-                                               Set<WaterNode> visiting,
-                                               DetailedResult res) {
-    if (!visiting.add(this)) {
-      throw new RuntimeError(new Token(TokenType.EOF, name, (Object)null, 0),
-                             "Cycle detected at node '" + name + "'.");
+    for (int i = 0; i < run.nodes().size(); i++) {
+      res.totalOutByNode.put(run.nodes().get(i), run.outflow(i));
+      res.volumeByNode.put(run.nodes().get(i), run.storage(i));
     }
-    NodeOutputs outs = doCalculateDetailed(days, rainfall, visiting, res);
-
-    double[] totalOut =
-        outs.totalOut == null ? new double[days] : outs.totalOut;
-    double[] backlog = outs.backlog == null ? new double[days] : outs.backlog;
-    res.totalOutByNode.put(this, totalOut);
-    res.volumeByNode.put(this, backlog);
-
-    visiting.remove(this);
-    return outs;
-  }
-
-  // Helper to evaluate a child node in detailed mode.
-  protected final NodeOutputs evalChildDetailed(WaterNode node, int days,
-                                                double[] rainfall,
-                                                Set<WaterNode> visiting,
-                                                DetailedResult res) {
-    return node.evaluateDetailed(days, rainfall, visiting, res);
+    return res;
   }
 
   protected String nodeLabel() {
@@ -88,15 +102,10 @@ public abstract class WaterNode {
   protected int downstreamCount() { return outflows.size(); }
 
   /**
-   * Subclasses implement per-node logic and must return:
-   * - totalOut: the node's total outflow (pre-split)
-   * - perEdgeOut: the outflow per downstream edge (post-split),
-   *   which is what downstream nodes should receive.
+   * Fresh per-run state for a simulation of the given number of days, reading
+   * this node's own rainfall series.
    */
-  protected abstract NodeOutputs doCalculateDetailed(int days,
-                                                     double[] rainfall,
-                                                     Set<WaterNode> visiting,
-                                                     DetailedResult res);
+  protected abstract Stepper stepper(int days, Rainfall rainfall);
 
   public String tree() {
     StringBuilder sb = new StringBuilder();
@@ -149,16 +158,22 @@ public abstract class WaterNode {
     public final Map<WaterNode, double[]> volumeByNode = new HashMap<>();
   }
 
-  // Return both total outflow and per-edge outflow arrays.
-  protected static final class NodeOutputs {
-    final double[] totalOut;
-    final double[] perEdgeOut;
-    final double[] backlog;
+  /** A node's state during one day-by-day simulation run. */
+  protected abstract static class Stepper {
+    // Total outflow (before splitting between downstream edges) and storage
+    // after outflow, for the day just stepped.
+    double outflow;
+    double storage;
 
-    NodeOutputs(double[] totalOut, double[] perEdgeOut, double[] backlog) {
-      this.totalOut = totalOut;
-      this.perEdgeOut = perEdgeOut;
-      this.backlog = backlog;
-    }
+    // Advances one day; incoming is what the upstream edges deliver today.
+    abstract void step(Interpreter interpreter, int day, double incoming);
+
+    // True when stepping day with nothing incoming would only set outflow
+    // to zero, so the simulation may do just that instead.
+    boolean idle(int day) { return false; }
+
+    // True when, with nothing incoming from day on, this node would only
+    // ever have zero outflow and unchanged storage.
+    boolean drained(int day) { return false; }
   }
 }
\ No newline at end of file
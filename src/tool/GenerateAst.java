@@ -13,11 +13,12 @@ public class GenerateAst {
 		}
 		String outputDir = args[0];
 
-		defineAst(outputDir, "Expr", Arrays.asList(
+		List<String> exprTypes = Arrays.asList(
 			"Assign   : Token name, Expr value",
 			"Array    : List<Expr> elements",
 			"Binary   : Expr left, Token operator, Expr right",
 			"Call     : Expr callee, Token paren, List<Expr> arguments",
+			"Dictionary : Token brace, List<Expr> keys, List<Expr> values",
 			"Get      : Expr object, Token name",
 			"Grouping : Expr expression",
 			"Lambda   : List<Token> params, List<Stmt> body",
@@ -28,21 +29,26 @@ public class GenerateAst {
 			"This     : Token keyword",
 			"Unary    : Token operator, Expr right",
 			"Variable : Token name"
-		));
+		);
 
-		defineAst(outputDir, "Stmt", Arrays.asList(
+		List<String> stmtTypes = Arrays.asList(
 			"Block      : List<Stmt> statements",
 			"Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
 			"Expression : Expr expression",
 			"Edge       : Expr.Variable from, Token arrow, Expr.Variable to",
 			"Function   : Token name, List<Token> params, List<Stmt> body",
 			"If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
+			"ParallelFor : Token keyword, Token name, Expr iterable, Stmt body",
 			"Return     : Token keyword, Expr value",
 			"Print      : Expr expression",
 			"Var        : Token name, Expr initializer",
 			"While      : Expr condition, Stmt body",
 			"NodeDecl   : Token kind, Token name, Map<String,Expr> props"
-		));
+		);
+
+		defineAst(outputDir, "Expr", exprTypes);
+		defineAst(outputDir, "Stmt", stmtTypes);
+		defineFlatAst(outputDir, exprTypes, stmtTypes);
 	}
 
 	private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException {
@@ -114,4 +120,293 @@ public class GenerateAst {
 
 		writer.println("\t}");
 	}
-}
\ No newline at end of file
+
+	// Array-backed encoding of the same node types. Each node is a record in
+	// one int[]: its kind, then one slot per field holding a child node offset,
+	// a list offset or an index into the token or literal side table.
+	private static void defineFlatAst(String outputDir, List<String> exprTypes, List<String> stmtTypes) throws IOException {
+		String path = outputDir + "/FlatAst.java";
+		PrintWriter writer = new PrintWriter(path, "UTF-8");
+
+		writer.println("package lox;");
+		writer.println();
+		writer.println("import java.util.ArrayList;");
+		writer.println("import java.util.Arrays;");
+		writer.println("import java.util.HashMap;");
+		writer.println("import java.util.IdentityHashMap;");
+		writer.println("import java.util.List;");
+		writer.println("import java.util.Map;");
+		writer.println();
+		writer.println("/**");
+		writer.println(" * Array-backed AST, generated by tool.GenerateAst alongside Expr and Stmt.");
+		writer.println(" *");
+		writer.println(" * A node is a record in nodes: its kind followed by one int per field. Node");
+		writer.println(" * fields hold the child's offset, literal fields an index into literals,");
+		writer.println(" * token fields an index into tokens, and list or map fields the offset of");
+		writer.println(" * a block holding a count and then the items (key literal and value node");
+		writer.println(" * pairs for maps). A token is four ints: type ordinal, lexeme literal,");
+		writer.println(" * literal and line. Missing children, tokens and nil literals are -1.");
+		writer.println(" *");
+		writer.println(" * Only AstFootprint uses it for now. The resolver, interpreter and");
+		writer.println(" * snapshots still work on the object tree; decode() rebuilds that tree.");
+		writer.println(" */");
+		writer.println("final class FlatAst {");
+		writer.println("\tprivate static final TokenType[] TOKEN_TYPES = TokenType.values();");
+		writer.println();
+
+		int kind = 0;
+		for (String type : exprTypes)
+			writer.println("\tstatic final int " + kindName("Expr", type) + " = " + kind++ + ";");
+		for (String type : stmtTypes)
+			writer.println("\tstatic final int " + kindName("Stmt", type) + " = " + kind++ + ";");
+
+		writer.println();
+		writer.println("\tfinal int[] nodes;");
+		writer.println("\tfinal int[] tokens;");
+		writer.println("\tfinal Object[] literals;");
+		writer.println("\t// List block of the top-level statements.");
+		writer.println("\tfinal int root;");
+		writer.println();
+		writer.println("\tprivate FlatAst(int[] nodes, int[] tokens, Object[] literals, int root) {");
+		writer.println("\t\tthis.nodes = nodes;");
+		writer.println("\t\tthis.tokens = tokens;");
+		writer.println("\t\tthis.literals = literals;");
+		writer.println("\t\tthis.root = root;");
+		writer.println("\t}");
+		writer.println();
+		writer.println("\tstatic FlatAst encode(List<Stmt> statements) {");
+		writer.println("\t\tEncoder encoder = new Encoder();");
+		writer.println("\t\tint root = encoder.stmts(statements);");
+		writer.println("\t\treturn new FlatAst(Arrays.copyOf(encoder.nodes, encoder.size),");
+		writer.println("\t\t\t\tArrays.copyOf(encoder.tokens, encoder.tokenSize), encoder.literals.toArray(), root);");
+		writer.println("\t}");
+		writer.println();
+		writer.println("\tint kind(int node) { return nodes[node]; }");
+		writer.println("\tint field(int node, int index) { return nodes[node + 1 + index]; }");
+		writer.println("\tint length(int block) { return nodes[block]; }");
+		writer.println("\tint item(int block, int index) { return nodes[block + 1 + index]; }");
+		writer.println("\tTokenType tokenType(int slot) { return TOKEN_TYPES[tokens[4 * slot]]; }");
+		writer.println("\tString lexeme(int slot) { return (String)literals[tokens[4 * slot + 1]]; }");
+		writer.println("\tint line(int slot) { return tokens[4 * slot + 3]; }");
+		writer.println("\tObject literal(int slot) { return slot < 0 ? null : literals[slot]; }");
+		writer.println();
+		writer.println("\t// Rebuilds the object tree, e.g. for the resolver and interpreter.");
+		writer.println("\tList<Stmt> decode() { return stmts(root); }");
+
+		defineDecoder(writer, "Expr", exprTypes);
+		defineDecoder(writer, "Stmt", stmtTypes);
+
+		writer.println();
+		writer.println("\t@SuppressWarnings(\"unchecked\")");
+		writer.println("\tprivate <T extends Expr> List<T> exprs(int block) {");
+		writer.println("\t\tList<T> list = new ArrayList<>(length(block));");
+		writer.println("\t\tfor (int i = 0; i < length(block); i++)");
+		writer.println("\t\t\tlist.add((T)expr(item(block, i)));");
+		writer.println("\t\treturn list;");
+		writer.println("\t}");
+		writer.println();
+		writer.println("\t@SuppressWarnings(\"unchecked\")");
+		writer.println("\tprivate <T extends Stmt> List<T> stmts(int block) {");
+		writer.println("\t\tList<T> list = new ArrayList<>(length(block));");
+		writer.println("\t\tfor (int i = 0; i < length(block); i++)");
+		writer.println("\t\t\tlist.add((T)stmt(item(block, i)));");
+		writer.println("\t\treturn list;");
+		writer.println("\t}");
+		writer.println();
+		writer.println("\tprivate List<Token> tokenList(int block) {");
+		writer.println("\t\tList<Token> list = new ArrayList<>(length(block));");
+		writer.println("\t\tfor (int i = 0; i < length(block); i++)");
+		writer.println("\t\t\tlist.add(token(item(block, i)));");
+		writer.println("\t\treturn list;");
+		writer.println("\t}");
+		writer.println();
+		writer.println("\tprivate Token token(int slot) {");
+		writer.println("\t\tif (slot < 0)");
+		writer.println("\t\t\treturn null;");
+		writer.println("\t\treturn new Token(tokenType(slot), lexeme(slot), literal(tokens[4 * slot + 2]), line(slot));");
+		writer.println("\t}");
+		writer.println();
+		writer.println("\tprivate Map<String, Expr> props(int block) {");
+		writer.println("\t\tMap<String, Expr> map = new HashMap<>();");
+		writer.println("\t\tfor (int i = 0; i < length(block); i++)");
+		writer.println("\t\t\tmap.put((String)literal(item(block, 2 * i)), expr(item(block, 2 * i + 1)));");
+		writer.println("\t\treturn map;");
+		writer.println("\t}");
+
+		defineEncoder(writer, exprTypes, stmtTypes);
+
+		writer.println("}");
+		writer.close();
+	}
+
+	private static void defineDecoder(PrintWriter writer, String baseName, List<String> types) {
+		writer.println();
+		writer.println("\t" + baseName + " " + baseName.toLowerCase() + "(int node) {");
+		writer.println("\t\tif (node < 0)");
+		writer.println("\t\t\treturn null;");
+		writer.println("\t\tswitch (nodes[node]) {");
+		for (String type : types) {
+			String className = type.split(":")[0].trim();
+			String[] fields = type.split(":")[1].trim().split(", ");
+			StringBuilder args = new StringBuilder();
+			for (int i = 0; i < fields.length; i++) {
+				if (i > 0)
+					args.append(", ");
+				args.append(decodeField(fields[i].split(" ")[0], "field(node, " + i + ")"));
+			}
+			writer.println("\t\tcase " + kindName(baseName, type) + ":");
+			writer.println("\t\t\treturn new " + baseName + "." + className + "(" + args + ");");
+		}
+		writer.println("\t\tdefault:");
+		writer.println("\t\t\tthrow new IllegalStateException(\"Not a " + baseName + " node: \" + nodes[node]);");
+		writer.println("\t\t}");
+		writer.println("\t}");
+	}
+
+	private static void defineEncoder(PrintWriter writer, List<String> exprTypes, List<String> stmtTypes) {
+		writer.println();
+		writer.println("\tprivate static final class Encoder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {");
+		writer.println("\t\tint[] nodes = new int[1024];");
+		writer.println("\t\tint size = 0;");
+		writer.println("\t\tint[] tokens = new int[1024];");
+		writer.println("\t\tint tokenSize = 0;");
+		writer.println("\t\tfinal List<Object> literals = new ArrayList<>();");
+		writer.println("\t\tprivate final Map<Token, Integer> tokenIds = new IdentityHashMap<>();");
+		writer.println("\t\tprivate final Map<Object, Integer> literalIds = new HashMap<>();");
+
+		for (String type : exprTypes)
+			defineEncodeVisit(writer, "Expr", type);
+		for (String type : stmtTypes)
+			defineEncodeVisit(writer, "Stmt", type);
+
+		writer.println();
+		writer.println("\t\tprivate int add(int... values) {");
+		writer.println("\t\t\tif (size + values.length > nodes.length)");
+		writer.println("\t\t\t\tnodes = Arrays.copyOf(nodes, Math.max(nodes.length * 2, size + values.length));");
+		writer.println("\t\t\tSystem.arraycopy(values, 0, nodes, size, values.length);");
+		writer.println("\t\t\tsize += values.length;");
+		writer.println("\t\t\treturn size - values.length;");
+		writer.println("\t\t}");
+		writer.println();
+		writer.println("\t\tprivate int node(Expr expr) { return expr == null ? -1 : expr.accept(this); }");
+		writer.println();
+		writer.println("\t\tprivate int node(Stmt stmt) { return stmt == null ? -1 : stmt.accept(this); }");
+		writer.println();
+		writer.println("\t\tprivate int token(Token token) {");
+		writer.println("\t\t\tif (token == null)");
+		writer.println("\t\t\t\treturn -1;");
+		writer.println("\t\t\tInteger id = tokenIds.get(token);");
+		writer.println("\t\t\tif (id != null)");
+		writer.println("\t\t\t\treturn id;");
+		writer.println("\t\t\tif (tokenSize + 4 > tokens.length)");
+		writer.println("\t\t\t\ttokens = Arrays.copyOf(tokens, tokens.length * 2);");
+		writer.println("\t\t\ttokens[tokenSize++] = token.type.ordinal();");
+		writer.println("\t\t\ttokens[tokenSize++] = literal(token.lexeme);");
+		writer.println("\t\t\ttokens[tokenSize++] = literal(token.literal);");
+		writer.println("\t\t\ttokens[tokenSize++] = token.line;");
+		writer.println("\t\t\ttokenIds.put(token, tokenSize / 4 - 1);");
+		writer.println("\t\t\treturn tokenSize / 4 - 1;");
+		writer.println("\t\t}");
+		writer.println();
+		writer.println("\t\tprivate int literal(Object value) {");
+		writer.println("\t\t\tif (value == null)");
+		writer.println("\t\t\t\treturn -1;");
+		writer.println("\t\t\treturn literalIds.computeIfAbsent(value, v -> {");
+		writer.println("\t\t\t\tliterals.add(v);");
+		writer.println("\t\t\t\treturn literals.size() - 1;");
+		writer.println("\t\t\t});");
+		writer.println("\t\t}");
+		writer.println();
+		writer.println("\t\tprivate int exprs(List<? extends Expr> list) {");
+		writer.println("\t\t\tint[] block = new int[list.size() + 1];");
+		writer.println("\t\t\tblock[0] = list.size();");
+		writer.println("\t\t\tfor (int i = 0; i < list.size(); i++)");
+		writer.println("\t\t\t\tblock[i + 1] = node(list.get(i));");
+		writer.println("\t\t\treturn add(block);");
+		writer.println("\t\t}");
+		writer.println();
+		writer.println("\t\tprivate int stmts(List<? extends Stmt> list) {");
+		writer.println("\t\t\tint[] block = new int[list.size() + 1];");
+		writer.println("\t\t\tblock[0] = list.size();");
+		writer.println("\t\t\tfor (int i = 0; i < list.size(); i++)");
+		writer.println("\t\t\t\tblock[i + 1] = node(list.get(i));");
+		writer.println("\t\t\treturn add(block);");
+		writer.println("\t\t}");
+		writer.println();
+		writer.println("\t\tprivate int tokenList(List<Token> list) {");
+		writer.println("\t\t\tint[] block = new int[list.size() + 1];");
+		writer.println("\t\t\tblock[0] = list.size();");
+		writer.println("\t\t\tfor (int i = 0; i < list.size(); i++)");
+		writer.println("\t\t\t\tblock[i + 1] = token(list.get(i));");
+		writer.println("\t\t\treturn add(block);");
+		writer.println("\t\t}");
+		writer.println();
+		writer.println("\t\tprivate int props(Map<String, Expr> map) {");
+		writer.println("\t\t\tint[] block = new int[2 * map.size() + 1];");
+		writer.println("\t\t\tblock[0] = map.size();");
+		writer.println("\t\t\tint i = 1;");
+		writer.println("\t\t\tfor (Map.Entry<String, Expr> entry : map.entrySet()) {");
+		writer.println("\t\t\t\tblock[i++] = literal(entry.getKey());");
+		writer.println("\t\t\t\tblock[i++] = node(entry.getValue());");
+		writer.println("\t\t\t}");
+		writer.println("\t\t\treturn add(block);");
+		writer.println("\t\t}");
+		writer.println("\t}");
+	}
+
+	private static void defineEncodeVisit(PrintWriter writer, String baseName, String type) {
+		String className = type.split(":")[0].trim();
+		String[] fields = type.split(":")[1].trim().split(", ");
+		String var = baseName.toLowerCase();
+		StringBuilder args = new StringBuilder(kindName(baseName, type));
+		for (String field : fields) {
+			String[] parts = field.split(" ");
+			args.append(", ").append(encodeField(parts[0], var + "." + parts[1]));
+		}
+		writer.println();
+		writer.println("\t\t@Override");
+		writer.println("\t\tpublic Integer visit" + className + baseName + "(" + baseName + "." + className + " " + var + ") {");
+		writer.println("\t\t\treturn add(" + args + ");");
+		writer.println("\t\t}");
+	}
+
+	private static String encodeField(String type, String value) {
+		if (type.startsWith("List<Token"))
+			return "tokenList(" + value + ")";
+		if (type.startsWith("List<Expr"))
+			return "exprs(" + value + ")";
+		if (type.startsWith("List<Stmt"))
+			return "stmts(" + value + ")";
+		if (type.startsWith("Map<"))
+			return "props(" + value + ")";
+		if (type.equals("Token"))
+			return "token(" + value + ")";
+		if (type.equals("Object"))
+			return "literal(" + value + ")";
+		return "node(" + value + ")";
+	}
+
+	private static String decodeField(String type, String slot) {
+		if (type.startsWith("List<Token"))
+			return "tokenList(" + slot + ")";
+		if (type.startsWith("List<Expr"))
+			return "exprs(" + slot + ")";
+		if (type.startsWith("List<Stmt"))
+			return "stmts(" + slot + ")";
+		if (type.startsWith("Map<"))
+			return "props(" + slot + ")";
+		if (type.equals("Token"))
+			return "token(" + slot + ")";
+		if (type.equals("Object"))
+			return "literal(" + slot + ")";
+		String base = type.split("\\.")[0];
+		String cast = type.contains(".") ? "(" + type + ")" : "";
+		return cast + base.toLowerCase() + "(" + slot + ")";
+	}
+
+	// ParallelFor in Stmt becomes STMT_PARALLEL_FOR.
+	private static String kindName(String baseName, String type) {
+		String className = type.split(":")[0].trim();
+		return baseName.toUpperCase() + "_" + className.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+	}
+}